@@ -0,0 +1,55 @@
+package cbir;
+
+/**
+ * Creates the synthetic data the benchmarks run on, with
+ * {@link SyntheticImages}. The data is seeded, so each run of a benchmark
+ * sees the same data.
+ */
+final class BenchmarkData {
+    static final long SEED = 0x5eedL; // seed of any other random data
+
+    static final int IMAGE_WIDTH  = 32; // size of each image of a synthetic collection
+    static final int IMAGE_HEIGHT = 32;
+
+    private BenchmarkData() {
+        throw new RuntimeException("Error: can't instantiate BenchmarkData class");
+    }
+
+    /**
+     * Returns the generator of a synthetic collection of
+     * {@code IMAGE_WIDTH x IMAGE_HEIGHT} images.
+     *
+     * @param size - The number of images.
+     * @return The generator of the collection's images.
+     */
+    static SyntheticImages images(final int size) {
+        return new SyntheticImages(new SyntheticImages.Options().count(size).resolution(IMAGE_WIDTH, IMAGE_HEIGHT));
+    }
+
+    /**
+     * Returns a synthetic collection, loaded from memory as a streaming
+     * collection, which is how the command line and the server load
+     * collections.
+     *
+     * @param size - The number of images.
+     * @return The collection.
+     */
+    static ImageCollection collection(final int size) {
+        return images(size).toCollection(new ImageCollection.Options().streaming(true));
+    }
+
+    /**
+     * Returns the intensity histograms of a synthetic collection, as the bin
+     * counts {@link Histogram#intensityHistogram(int[]) intensityHistogram}
+     * returns.
+     *
+     * @param size - The number of images.
+     * @return The histogram of each image.
+     */
+    static double[][] intensityHistograms(final int size) {
+        final var images     = images(size);
+        final var histograms = new double[size][];
+        for (int i = 0; i < size; i++) histograms[i] = Histogram.intensityHistogram(images.getPixelsAt(i));
+        return histograms;
+    }
+}
@@ -0,0 +1,67 @@
+package cbir;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures comparing one query with every image of a collection, the work of
+ * a full scan, with {@link Histogram#calculateDistance(double[], double[], int,
+ * int, int) calculateDistance} on intensity histograms and with
+ * {@link Histogram#calculateWeightedDistance(double[], double[], double[], int)
+ * calculateWeightedDistance} on the combined relevance feedback features.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+    private static final int PIXELS   = BenchmarkData.IMAGE_WIDTH * BenchmarkData.IMAGE_HEIGHT;
+    private static final int FEATURES = Histogram.INTENSITY_BINS + Histogram.COLOR_CODE_BINS;
+
+    @Param({"100", "1000", "10000", "100000"})
+    private int size;
+
+    private double[][] histograms; // intensity bin counts of each image
+    private double[][] features;   // combined features of each image
+    private double[]   weight;     // weight of each feature
+
+    @Setup
+    public void setup() {
+        final var random = new Random(BenchmarkData.SEED);
+        histograms = BenchmarkData.intensityHistograms(size);
+        features   = new double[size][FEATURES];
+        weight     = new double[FEATURES];
+        for (final var row : features) for (int f = 0; f < FEATURES; f++) row[f] = random.nextGaussian();
+        for (int f = 0; f < FEATURES; f++) weight[f] = random.nextDouble() / FEATURES;
+    }
+
+    @Benchmark
+    public double calculateDistance() {
+        final var query = histograms[0];
+        var sum = 0.0;
+        for (final var histogram : histograms)
+            sum += Histogram.calculateDistance(query, histogram, PIXELS, PIXELS, Histogram.INTENSITY_BINS);
+        return sum;
+    }
+
+    @Benchmark
+    public double calculateWeightedDistance() {
+        final var query = features[0];
+        var sum = 0.0;
+        for (final var row : features) sum += Histogram.calculateWeightedDistance(query, row, weight, FEATURES);
+        return sum;
+    }
+}
@@ -0,0 +1,58 @@
+package cbir;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building a {@link FeatureMatrix} and one relevance feedback
+ * iteration over synthetic collections of 100 to 100,000 images. The
+ * collection is loaded from memory once per trial, see
+ * {@link BenchmarkData#collection(int)}, so only the matrix is built by the
+ * benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FeatureMatrixBenchmark {
+    private static final int RELEVANT = 5; // images marked relevant besides the query
+
+    @Param({"100", "1000", "10000", "100000"})
+    private int size;
+
+    private ImageCollection images;
+    private FeatureMatrix   matrix;
+    private int[]           order;    // the images ranked before the feedback, by intensity
+    private boolean[]       relevant; // the query and the images ranked right after it
+
+    @Setup
+    public void setup() {
+        images   = BenchmarkData.collection(size);
+        matrix   = new FeatureMatrix(images);
+        order    = matrix.rank(HistogramType.INTENSITY, 0, SearchMethod.SCAN).top(size);
+        relevant = new boolean[size];
+        for (int i = 0; i <= Math.min(RELEVANT, size - 1); i++) relevant[order[i]] = true;
+    }
+
+    @Benchmark
+    public FeatureMatrix construct() {
+        return new FeatureMatrix(images);
+    }
+
+    @Benchmark
+    public double[] relevanceAnalysis() {
+        return matrix.relevanceAnalysis(0, order, relevant);
+    }
+}
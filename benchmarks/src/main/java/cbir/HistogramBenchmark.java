@@ -0,0 +1,46 @@
+package cbir;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the histogram extraction of a single image, from 128x128 to
+ * 2048x2048 pixels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+    @Param({"128", "512", "2048"})
+    private int side;
+
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        pixels = new SyntheticImages(new SyntheticImages.Options().count(1).resolution(side, side)).getPixelsAt(0);
+    }
+
+    @Benchmark
+    public double[] intensityHistogram() {
+        return Histogram.intensityHistogram(pixels);
+    }
+
+    @Benchmark
+    public double[] colorCodeHistogram() {
+        return Histogram.colorCodeHistogram(pixels);
+    }
+}
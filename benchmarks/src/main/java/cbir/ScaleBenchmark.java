@@ -0,0 +1,76 @@
+package cbir;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading and querying synthetic collections of 10,000 to 1,000,000
+ * images: the time to load a collection and build its feature matrix, and
+ * the latency of a top-20 query with each histogram search method. Run with
+ * {@code -prof gc} to also report the memory allocated by loading.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ScaleBenchmark {
+    private static final int K       = 20;  // results of each query
+    private static final int QUERIES = 256; // query images cycled through
+
+    @Param({"10000", "100000", "1000000"})
+    private int size;
+
+    private FeatureMatrix matrix;
+    private int           next; // the next query image
+
+    @Setup
+    public void setup() {
+        matrix = new FeatureMatrix(BenchmarkData.collection(size));
+        matrix.getIndex(HistogramType.INTENSITY);
+        matrix.getPrunedScan(HistogramType.INTENSITY);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public FeatureMatrix load() {
+        return new FeatureMatrix(BenchmarkData.collection(size));
+    }
+
+    @Benchmark
+    public int[] scan() {
+        return query(SearchMethod.SCAN);
+    }
+
+    @Benchmark
+    public int[] pruned() {
+        return query(SearchMethod.PRUNED);
+    }
+
+    @Benchmark
+    public int[] vpTree() {
+        return query(SearchMethod.VP_TREE);
+    }
+
+    // ranks by an image that isn't in the query cache, so every query does its full work
+    private int[] query(final SearchMethod method) {
+        final var histograms = matrix.getHistograms(HistogramType.INTENSITY);
+        final var query      = new double[histograms.getStride()];
+        histograms.copyRow(next, query);
+        next = (next + 1) % QUERIES;
+        return matrix.rank(HistogramType.INTENSITY, query, method).top(K);
+    }
+}
@@ -6,7 +6,15 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.IntStream;
 
 import javax.swing.BorderFactory;
@@ -20,7 +28,10 @@ import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.WindowConstants;
 import javax.swing.border.TitledBorder;
 
@@ -28,28 +39,37 @@ public class AppGui extends JFrame {
     private final static int   IMAGES_PER_PAGE = 20;
     private final static Color BUTTON_COLOR    = new Color(243, 250, 254);
     private final static Font  DEFAULT_FONT    = new Font("Helvetica", Font.BOLD, 14);
+    private final static Image PLACEHOLDER     = GuiFactory.createPlaceholder();
+    private final static int   PREVIEW_WIDTH   = 640; // smallest size the selected image is decoded at
+    private final static int   PREVIEW_HEIGHT  = 480;
 
     private JPanel topPanel;
     private JPanel bottomPanel;
     private JPanel imageViewPanel;
 
-    private JLabel    selectedPageView;
-    private JLabel    selectedImageView;
-    private JCheckBox relevanceCheckBox;
+    private JLabel       selectedPageView;
+    private JLabel       selectedImageView;
+    private JCheckBox    relevanceCheckBox;
+    private JButton[]    rankingButtons;   // buttons that need the feature matrix, disabled while loading
+    private JButton      cancelButton;
+    private JProgressBar progressBar;
 
-    private JLabel[]    imageIconLabel;
-    private Integer[]   imageIconOrder;
-    private JButton[]   imageIconButton;
-    private JCheckBox[] imageIconCheckBox;
+    private transient List<String>    imageNames;     // name of each image in the grid, in collection order
+    private transient Ranking         imageIconOrder;
+    private transient BitSet          markedImages;   // images the user marked as relevant
+    private transient List<JCheckBox> pageCheckBoxes; // relevance checkboxes of the page on display
 
     private int currentPageNumber;
     private int lastPageNumber;
+    private int selectedImage = -1; // index of the image in the selected image view, -1 if none
 
     private int[][] pages;
 
     private String currentDirectory;
 
-    private transient FeatureMatrix matrix;
+    private transient FeatureMatrix   matrix;
+    private transient DirectoryLoader loader;     // the load in progress, null when idle
+    private transient ThumbnailCache  thumbnails; // thumbnails of the pages on display, and of their neighbours
 
     public AppGui() {
         setTitle("CBIR");
@@ -98,6 +118,12 @@ public class AppGui extends JFrame {
         final var selectButton  = new JButton("Select New Folder");
         final var folderText    = new JTextField(40);
 
+        cancelButton = new JButton("Cancel");
+        progressBar  = new JProgressBar(0, 100);
+        cancelButton.setEnabled(false);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+
         currentDirectory = folderText.getText();
 
         // set colors
@@ -105,6 +131,7 @@ public class AppGui extends JFrame {
         menuPanel.setBackground(Color.WHITE);
         exitButton.setBackground(BUTTON_COLOR);
         processButton.setBackground(BUTTON_COLOR);
+        cancelButton.setBackground(BUTTON_COLOR);
         selectButton.setBackground(BUTTON_COLOR);
         folderText.setBackground(BUTTON_COLOR);
 
@@ -112,6 +139,7 @@ public class AppGui extends JFrame {
         exitButton.addActionListener(e -> System.exit(0));
         selectButton.addActionListener(e -> openFileChooser(folderText));
         processButton.addActionListener(e -> processDirectory(folderText.getText()));
+        cancelButton.addActionListener(e -> cancelLoading());
 
         // add menu items to panel
         menuPanel.add(exitButton);
@@ -119,6 +147,8 @@ public class AppGui extends JFrame {
         menuPanel.add(folderText);
         menuPanel.add(selectButton);
         menuPanel.add(processButton);
+        menuPanel.add(cancelButton);
+        menuPanel.add(progressBar);
 
         // add the menu to this frame
         menuBar.add(menuPanel);
@@ -128,6 +158,8 @@ public class AppGui extends JFrame {
     private void createSelectedImageView() {
         topPanel.removeAll();
         selectedImageView.setText(null);
+        selectedImageView.setIcon(null);
+        selectedImage = -1;
         imageViewPanel.setBorder(BorderFactory.createTitledBorder(""));
 
         // create constraint to center selectedImageView in imageViewPanel
@@ -159,37 +191,44 @@ public class AppGui extends JFrame {
         // Intensity
         buttons[0].addActionListener(e -> {
             resetRelevanceCheckBox();
-            sortImages(matrix.getIntensityDistanceMatrix());
+            final var index = getSelectedImageNumber();
+            if (index != -1)
+                displayRanking(matrix.rank(HistogramType.INTENSITY, index));
         });
 
         // Color-Code
         buttons[1].addActionListener(e -> {
             resetRelevanceCheckBox();
-            sortImages(matrix.getColorCodeDistanceMatrix());
+            final var index = getSelectedImageNumber();
+            if (index != -1)
+                displayRanking(matrix.rank(HistogramType.COLOR_CODE, index));
         });
 
         // Intensity + Color-Code
         buttons[2].addActionListener(e -> {
             final var index = getSelectedImageNumber();
             if (index != -1)
-                sortImages(matrix.relevanceAnalysis(index, imageIconOrder, getMarkedImages()));
+                sortImages(matrix.relevanceAnalysis(index, imageIconOrder.getRanked(), getMarkedImages()));
         });
 
         // Reset
         buttons[3].addActionListener(e -> {
-            IntStream.range(0, matrix.getImageCollection().getSize()).forEach(i -> imageIconOrder[i] = i);
+            imageIconOrder = Ranking.identity(matrix.getImageCollection().getSize());
             selectedImageView.setIcon(null);
+            selectedImage = -1;
             imageViewPanel.setBorder(BorderFactory.createTitledBorder(""));
             resetRelevanceCheckBox();
             displayFirstPage();
         });
 
+        rankingButtons = Arrays.copyOf(buttons, 4);
+
         buttons[4].addActionListener(e -> updatePageView(currentPageNumber - 2, true));
         buttons[5].addActionListener(e -> updatePageView(currentPageNumber, true));
 
         relevanceCheckBox.addActionListener(e -> {
             final var selected = relevanceCheckBox.isSelected();
-            IntStream.range(0, imageIconCheckBox.length).forEach(i -> imageIconCheckBox[i].setVisible(selected));
+            pageCheckBoxes.forEach(checkBox -> checkBox.setVisible(selected));
         });
 
         // configure page selection panel with button and text
@@ -213,30 +252,85 @@ public class AppGui extends JFrame {
         topPanel.repaint();
     }
 
-    private void loadImages() {
-        // create components
-        final var size    = matrix.getImageCollection().getSize();
-        imageIconOrder    = new Integer[size];
-        imageIconLabel    = new JLabel[size];
-        imageIconButton   = new JButton[size];
-        imageIconCheckBox = new JCheckBox[size];
+    /**
+     * Removes every image from the grid, ready for the images of a new
+     * folder to be added as they load.
+     */
+    private void clearImages() {
+        imageIconOrder    = Ranking.identity(0);
+        imageNames        = Collections.synchronizedList(new ArrayList<>());
+        markedImages      = new BitSet();
+        pageCheckBoxes    = new ArrayList<>();
         currentPageNumber = 1;
-        lastPageNumber    = (int) Math.ceil((float) size / IMAGES_PER_PAGE);
-        pages             = new int[lastPageNumber][];
+        updatePages();
+
+        bottomPanel.removeAll();
+        bottomPanel.revalidate();
+        bottomPanel.repaint();
+    }
+
+    /**
+     * Replaces the thumbnail cache with an empty one for the images of the
+     * given folder, which reads each image at a reduced resolution.
+     *
+     * @param directory - The folder holding the images of the grid.
+     */
+    private void resetThumbnails(final String directory) {
+        if (thumbnails != null) thumbnails.close();
+
+        final var names = imageNames;
+        thumbnails = new ThumbnailCache(i -> ImageCollection.readImage(new File(directory, names.get(i)),
+                                                                       ThumbnailCache.SOURCE_WIDTH,
+                                                                       ThumbnailCache.SOURCE_HEIGHT));
+    }
+
+    /**
+     * Splits the images in the grid into pages of {@code IMAGES_PER_PAGE}
+     * images.
+     */
+    private void updatePages() {
+        final var size = imageNames.size();
+        lastPageNumber = (int) Math.ceil((float) size / IMAGES_PER_PAGE);
+        pages          = new int[lastPageNumber][];
 
-        // load page information
         for (int i = 0, count = 0; i < lastPageNumber; i++) {
             pages[i] = new int[Math.min(IMAGES_PER_PAGE, size - count)];
             for (int j = 0; j < pages[i].length; j++) pages[i][j] = count++;
         }
+    }
 
-        // load images
-        IntStream.range(0, matrix.getImageCollection().getSize()).forEach(i -> {
-            imageIconCheckBox[i] = GuiFactory.createCheckBox();
-            imageIconButton[i]   = GuiFactory.createButton(this, matrix.getImageCollection().getImageAt(i), matrix.getImageCollection().getNameAt(i));
-            imageIconLabel[i]    = GuiFactory.createButtonLabel(imageIconButton[i], imageIconCheckBox[i]);
-            imageIconOrder[i]    = i;
-        });
+    /**
+     * Creates the grid cell of the image at the given index: a button showing
+     * its thumbnail, and the checkbox marking it relevant. A thumbnail that
+     * isn't cached is shown blank until it is created.
+     *
+     * @param index - The index of the image in the collection.
+     * @return The grid cell of the image.
+     */
+    private JLabel createImageLabel(final int index) {
+        final var checkBox = GuiFactory.createCheckBox();
+        checkBox.setSelected(markedImages.get(index));
+        checkBox.setVisible(relevanceCheckBox.isSelected());
+        checkBox.addActionListener(e -> markedImages.set(index, checkBox.isSelected()));
+        pageCheckBoxes.add(checkBox);
+
+        final var thumbnail = thumbnails.getIfCached(index);
+        final var button    = GuiFactory.createButton(this, (thumbnail != null) ? thumbnail : PLACEHOLDER, index, imageNames.get(index));
+        if (thumbnail == null)
+            thumbnails.request(index).thenAcceptAsync(image -> button.setIcon(new ImageIcon(image)), SwingUtilities::invokeLater);
+
+        return GuiFactory.createButtonLabel(button, checkBox);
+    }
+
+    /**
+     * Returns the indices of the images on the given page, in the order they
+     * are displayed.
+     *
+     * @param pageIndex - The index of the page.
+     * @return The indices of the images on the page.
+     */
+    private int[] getPageImages(final int pageIndex) {
+        return Arrays.stream(pages[pageIndex]).map(i -> imageIconOrder.get(i)).toArray();
     }
 
     private void displayFirstPage() {
@@ -246,8 +340,8 @@ public class AppGui extends JFrame {
 
         // reset selected image checkbox
         final var selected = relevanceCheckBox.isSelected();
-        if (selectedImageView.getIcon() != null)
-            imageIconCheckBox[getSelectedImageNumber()].setSelected(selected);
+        if (selectedImage != -1)
+            markedImages.set(selectedImage, selected);
 
         // display first page
         updatePageView(0, false);
@@ -270,9 +364,10 @@ public class AppGui extends JFrame {
 
         // remove images from the bottom panel
         bottomPanel.removeAll();
+        pageCheckBoxes.clear();
 
         // add images for selected page
-        Arrays.stream(pages[pageIndex]).forEach(i -> bottomPanel.add(imageIconLabel[imageIconOrder[i]]));
+        Arrays.stream(getPageImages(pageIndex)).forEach(i -> bottomPanel.add(createImageLabel(i)));
         final var remaining = Math.abs(IMAGES_PER_PAGE - pages[pageIndex].length);
         IntStream.range(0, remaining).forEach(i -> bottomPanel.add(new JLabel()));
 
@@ -283,6 +378,10 @@ public class AppGui extends JFrame {
         // refresh bottom panel
         bottomPanel.revalidate();
         bottomPanel.repaint();
+
+        // create the thumbnails of the neighbouring pages before they are needed
+        if (pageIndex > 0)                thumbnails.prefetch(getPageImages(pageIndex - 1));
+        if (pageIndex + 1 < pages.length) thumbnails.prefetch(getPageImages(pageIndex + 1));
     }
 
     /**
@@ -292,9 +391,7 @@ public class AppGui extends JFrame {
      *         image is currently selected.
      */
     private int getSelectedImageNumber() {
-        if (selectedImageView.getIcon() == null) return -1;
-        final var title = ((TitledBorder) imageViewPanel.getBorder()).getTitle();
-        return matrix.getImageCollection().getNames().indexOf(title);
+        return selectedImage;
     }
 
     /**
@@ -306,8 +403,8 @@ public class AppGui extends JFrame {
      *         marked as relevant, while false indicates otherwise.
      */
     private boolean[] getMarkedImages() {
-        final var selectedImages = new boolean[imageIconCheckBox.length];
-        IntStream.range(0, selectedImages.length).forEach(i -> selectedImages[i] = imageIconCheckBox[i].isSelected());
+        final var selectedImages = new boolean[imageNames.size()];
+        IntStream.range(0, selectedImages.length).forEach(i -> selectedImages[i] = markedImages.get(i));
         return selectedImages;
     }
 
@@ -317,7 +414,8 @@ public class AppGui extends JFrame {
      */
     private void resetRelevanceCheckBox() {
         relevanceCheckBox.setSelected(false);
-        for (var checkBox : imageIconCheckBox) {
+        markedImages.clear();
+        for (var checkBox : pageCheckBoxes) {
             checkBox.setSelected(false);
             checkBox.setVisible(false);
         }
@@ -325,17 +423,28 @@ public class AppGui extends JFrame {
     }
 
     /**
-     * Helper method that sorts the images based on the given distance matrix.
-     * The distance matrix contains an array of values that maps the distance
-     * between two images at their given index.
+     * Helper method that sorts the images based on the given distances. The
+     * distances hold the distance between the selected image and each image
+     * in the collection, indexed by image. Only the images on the pages the
+     * user visits are ranked; images at the same distance keep their current
+     * order.
      *
-     * @param distanceMatrix - Distance matrix used to sort the images.
+     * @param distances - Distances from the selected image used to sort the
+     *                    images.
      */
-    private void sortImages(final Double[][] distanceMatrix) {
-        final var index = getSelectedImageNumber();
-        if (index == -1) return;
+    private void sortImages(final double[] distances) {
+        imageIconOrder = Ranking.byDistance(distances, imageIconOrder);
+        displayFirstPage();
+    }
 
-        Arrays.sort(imageIconOrder, (a, b) -> FeatureMatrix.compare(distanceMatrix, index, a, b));
+    /**
+     * Helper method that orders the images by the given ranking and displays
+     * its first page.
+     *
+     * @param ranking - The ranking of the images from the selected image.
+     */
+    private void displayRanking(final Ranking ranking) {
+        imageIconOrder = ranking;
         displayFirstPage();
     }
 
@@ -356,10 +465,18 @@ public class AppGui extends JFrame {
     }
 
     /**
-     * Processes the selected folder by creating an {@code ImageCollection}
-     * object using the given directory and initializing the UI elements. If
-     * The given directory is empty, or it is already selected, this method will
-     * display a message to the user indicating the error.
+     * Processes the selected folder by loading an {@code ImageCollection}
+     * from the given directory, and its {@code FeatureMatrix}, on a
+     * background thread. Images are added to the grid as they load, so the
+     * first page shows before the whole folder is processed, and the ranking
+     * buttons are enabled once the feature matrix is built. If the given
+     * directory is empty, or it is already selected, this method will display
+     * a message to the user indicating the error.
+     *
+     * <br>
+     * <br>
+     * Processing a folder while another one is loading cancels the earlier
+     * load.
      *
      * @param directory - The path of the directory to process.
      */
@@ -376,38 +493,182 @@ public class AppGui extends JFrame {
             return;
         }
 
-        // new directory - load all the images in the given directory
-        final var images = new ImageCollection(directory);
-        final var size   = images.getSize();
+        // new directory - drop the previous session and load the images in the background
+        if (loader != null) loader.cancel(true);
+        currentDirectory = directory;
+        matrix           = null;
+
+        clearImages();
+        resetThumbnails(directory);
+        createSelectedImageView();
+        createNavigationAndOptionButtons();
+        resetRelevanceCheckBox();
+        setRankingEnabled(false);
+        selectedPageView.setText("page 0/0");
+
+        progressBar.setValue(0);
+        progressBar.setString(null);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+
+        loader = new DirectoryLoader(directory);
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) progressBar.setValue((Integer) e.getNewValue());
+            if ("status".equals(e.getPropertyName()))   progressBar.setString((String) e.getNewValue());
+        });
+        loader.execute();
+    }
 
-        // if images are found in the directory, load their feature matrix
-        if (size == 0) {
-            JOptionPane.showMessageDialog(this, "Failed to find any supported images in the given directory.", "Error", JOptionPane.ERROR_MESSAGE);
-        } else {
-            currentDirectory = directory;
-            matrix           = new FeatureMatrix(images);
+    /**
+     * Cancels the load in progress, if any, and clears the images it loaded.
+     */
+    private void cancelLoading() {
+        if (loader == null) return;
+        loader.cancel(true);
+        loader = null;
+        finishLoading();
+        clearSession();
+    }
 
-            loadImages();
-            createSelectedImageView();
-            createNavigationAndOptionButtons();
-            displayFirstPage();
+    /**
+     * Hides the progress of a load that ended.
+     */
+    private void finishLoading() {
+        progressBar.setVisible(false);
+        cancelButton.setEnabled(false);
+    }
 
-            // clean up memory from previous session
-            System.gc();
-        }
+    /**
+     * Clears the images and controls of a folder that failed to load, so
+     * that it can be processed again.
+     */
+    private void clearSession() {
+        currentDirectory = null;
+        matrix           = null;
+        thumbnails.close();
+
+        clearImages();
+        topPanel.removeAll();
+        topPanel.revalidate();
+        topPanel.repaint();
+    }
+
+    /**
+     * Enables or disables the buttons that rank the images, which need the
+     * feature matrix.
+     *
+     * @param enabled - {@code true} to enable the buttons.
+     */
+    private void setRankingEnabled(final boolean enabled) {
+        for (var button : rankingButtons) button.setEnabled(enabled);
     }
 
     /**
-     * Selects and displays the image with the given label in the selected image
-     * view.
+     * Selects and displays the image with the given index in the selected
+     * image view. The image is decoded at a reduced resolution of at least
+     * {@code PREVIEW_WIDTH x PREVIEW_HEIGHT} off the event dispatch thread,
+     * and shown once decoded unless another image was selected meanwhile.
      *
+     * @param index - The index of the image to be displayed.
      * @param label - The label of the image to be displayed.
      */
-    private void updateSelectedImageView(final String label) {
-        final var index = matrix.getImageCollection().getNames().indexOf(label);
-        final var icon  = matrix.getImageCollection().getImages().get(index);
-        selectedImageView.setIcon(new ImageIcon(icon));
+    private void updateSelectedImageView(final int index, final String label) {
+        if (matrix == null) return; // still loading
+
+        selectedImage = index;
+        selectedImageView.setIcon(null);
         imageViewPanel.setBorder(BorderFactory.createTitledBorder(label));
+
+        final var images = matrix.getImageCollection();
+        CompletableFuture.supplyAsync(() -> images.getImageAt(index, PREVIEW_WIDTH, PREVIEW_HEIGHT))
+                         .thenAcceptAsync(image -> {
+                             if (selectedImage != index || matrix == null || matrix.getImageCollection() != images) return;
+                             selectedImageView.setIcon(new ImageIcon(image));
+                         }, SwingUtilities::invokeLater);
+    }
+
+    /**
+     * Loads a folder's {@code ImageCollection} and {@code FeatureMatrix} off
+     * the event dispatch thread. The name of each image is published to the
+     * grid as soon as it is added to the collection, and the load's progress
+     * is reported through the {@code progress} and {@code status} properties.
+     */
+    private final class DirectoryLoader extends SwingWorker<FeatureMatrix, String>
+                                        implements ImageCollection.LoadListener {
+        private final String directory; // the folder to load
+
+        private DirectoryLoader(final String directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected FeatureMatrix doInBackground() {
+            final var options = new ImageCollection.Options().streaming(true).indexed(true).listener(this);
+            final var images  = new ImageCollection(directory, options);
+            if (images.getSize() == 0) return null;
+
+            firePropertyChange("status", null, "Extracting features");
+            final var loaded = new FeatureMatrix(images);
+
+            // the ranking buttons search these trees, which would otherwise be built on the first click, on the EDT
+            firePropertyChange("status", null, "Building search indices");
+            for (var type : HistogramType.values()) loaded.getIndex(type);
+            return loaded;
+        }
+
+        @Override
+        public void imageAdded(final int index, final String name) {
+            publish(name);
+        }
+
+        @Override
+        public void progress(final int processed, final int total) {
+            setProgress(processed * 100 / total);
+        }
+
+        @Override
+        protected void process(final List<String> names) {
+            if (loader != this) return; // cancelled, or replaced by a newer load
+
+            // only the page on display needs redrawing, and only until it fills up
+            final var pageFull = currentPageNumber <= pages.length && pages[currentPageNumber - 1].length == IMAGES_PER_PAGE;
+            imageNames.addAll(names);
+            imageIconOrder = Ranking.identity(imageNames.size());
+            updatePages();
+
+            if (pageFull) selectedPageView.setText("page " + currentPageNumber + "/" + lastPageNumber);
+            else          updatePageView(currentPageNumber - 1, false);
+        }
+
+        @Override
+        protected void done() {
+            if (loader != this) return; // cancelled, or replaced by a newer load
+            loader = null;
+            finishLoading();
+
+            final FeatureMatrix loaded;
+            try {
+                loaded = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                clearSession();
+                JOptionPane.showMessageDialog(AppGui.this, "Failed to process folder: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            if (loaded == null) {
+                clearSession();
+                JOptionPane.showMessageDialog(AppGui.this, "Failed to find any supported images in the given directory.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            matrix         = loaded;
+            imageIconOrder = Ranking.identity(matrix.getImageCollection().getSize());
+            setRankingEnabled(true);
+            updatePageView(currentPageNumber - 1, false);
+        }
     }
 
     /**
@@ -421,10 +682,9 @@ public class AppGui extends JFrame {
             return checkBox;
         }
 
-        private static JButton createButton(final AppGui gui, final Image image, final String label) {
-            final var icon = image.getScaledInstance(140, 80, Image.SCALE_SMOOTH);
-            final var button = new JButton(new ImageIcon(icon));
-            button.addActionListener(e -> gui.updateSelectedImageView(label));
+        private static JButton createButton(final AppGui gui, final Image image, final int index, final String label) {
+            final var button = new JButton(new ImageIcon(image));
+            button.addActionListener(e -> gui.updateSelectedImageView(index, label));
             button.setBackground(Color.WHITE);
 
             final var border = new TitledBorder(label);
@@ -434,6 +694,15 @@ public class AppGui extends JFrame {
             return button;
         }
 
+        private static Image createPlaceholder() {
+            final var placeholder = new BufferedImage(ThumbnailCache.THUMBNAIL_WIDTH, ThumbnailCache.THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            final var graphics    = placeholder.createGraphics();
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, placeholder.getWidth(), placeholder.getHeight());
+            graphics.dispose();
+            return placeholder;
+        }
+
         private static JLabel createButtonLabel(final JButton button, final JCheckBox checkBox) {
             final var buttonLabel = new JLabel();
             buttonLabel.setLayout(new GridBagLayout());
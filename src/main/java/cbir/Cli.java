@@ -0,0 +1,346 @@
+package cbir;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The headless command line interface, used when {@link Main} is given
+ * arguments or there is no display. It indexes image directories and answers
+ * queries without creating any Swing components, writing results to standard
+ * output as tab separated lines and progress to standard error.
+ */
+public final class Cli {
+    private static final String USAGE = """
+            usage: cbir index <directory> [--threads <n>] [--subsampling <n>] [--store <file>]
+                   cbir query <directory> <image> [--k <n>] [--mode <mode>] [--search <method>]
+                              [--epsilon <e>] [--relevant <images>] [--threads <n>] [--subsampling <n>]
+                   cbir serve <directory> [--port <n>] [--host <address>] [--epsilon <e>] [--threads <n>]
+                              [--subsampling <n>]
+                   cbir generate <directory> [--count <n>] [--width <n>] [--height <n>] [--seed <n>]
+                                 [--distribution <d>] [--threads <n>]
+
+            index    extracts the histograms of every image in the directory and saves
+                     them to its feature index, so later runs only decode new or changed
+                     files, then reports the time spent in each stage of the pipeline.
+                     --store also writes the normalized features to a file, and the
+                     histograms to the same file name + .intensity / .color-code.
+            query    prints the k images nearest to the given image, one per line, as
+                     rank, distance and name. The image is either the name of an image
+                     in the directory or the path of any image file.
+            serve    answers queries over HTTP until stopped, see QueryServer. --threads
+                     sets the request threads, by default a virtual thread per request.
+            generate writes a reproducible collection of synthetic PNG images to the
+                     directory, see SyntheticImages. --distribution is one of uniform,
+                     clustered or palette (default clustered, 1000 images of 64x64).
+
+            --k         number of results (default 20)
+            --mode      intensity | color-code | relevance (default intensity)
+            --search    scan | pruned | vptree | inverted | pq (default scan)
+            --epsilon   allowed relative error of vptree searches (default 0)
+            --relevant  comma separated names of the images marked relevant, used by the
+                        relevance mode together with the query image
+            """;
+
+    private static final int OK    = 0;
+    private static final int ERROR = 1;
+    private static final int USE   = 2;
+
+    private Cli() {
+        throw new RuntimeException("Error: can't instantiate Cli class");
+    }
+
+    /**
+     * Runs the command given by the arguments.
+     *
+     * @param args - The command line arguments.
+     * @return The exit status: {@code 0} on success, {@code 1} if the command
+     *         failed, {@code 2} if the arguments are invalid.
+     */
+    public static int run(final String[] args) {
+        return run(args, System.out, System.err);
+    }
+
+    /**
+     * Runs the command given by the arguments, writing to the given streams.
+     *
+     * @param args - The command line arguments.
+     * @param out  - The stream the results are written to.
+     * @param err  - The stream progress and errors are written to.
+     * @return The exit status: {@code 0} on success, {@code 1} if the command
+     *         failed, {@code 2} if the arguments are invalid.
+     */
+    public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+        if (args.length == 0) {
+            err.print(USAGE);
+            return USE;
+        }
+
+        try {
+            final var arguments = Arguments.parse(Arrays.copyOfRange(args, 1, args.length));
+            return switch (args[0]) {
+                case "index"          -> index(arguments, err);
+                case "query"          -> query(arguments, out, err);
+                case "serve"          -> serve(arguments, err);
+                case "generate"       -> generate(arguments, err);
+                case "help", "--help" -> help(out);
+                default               -> throw new IllegalArgumentException("unknown command '" + args[0] + "'");
+            };
+        } catch (IllegalArgumentException e) {
+            err.println("cbir: " + e.getMessage());
+            err.print(USAGE);
+            return USE;
+        } catch (RuntimeException e) {
+            err.println("cbir: " + e.getMessage());
+            return ERROR;
+        }
+    }
+
+    private static int help(final PrintStream out) {
+        out.print(USAGE);
+        return OK;
+    }
+
+    private static int index(final Arguments arguments, final PrintStream err) {
+        final var directory = arguments.positional(0, "directory");
+        final var start     = System.nanoTime();
+        final var images    = load(directory, arguments);
+        if (images.getSize() == 0) throw new RuntimeException("no supported images in " + directory);
+
+        final var store  = arguments.has("store") ? Path.of(arguments.get("store")) : null;
+        final var matrix = new FeatureMatrix(images, new FeatureMatrix.Options().featureStore(store));
+        for (final var features : List.of(matrix.getNormalizedFeatures(), matrix.getHistograms(HistogramType.INTENSITY),
+                                          matrix.getHistograms(HistogramType.COLOR_CODE)))
+            if (features instanceof MappedFeatureStore mapped) mapped.force();
+
+        err.printf("indexed %d images in %d ms (%s)%n", images.getSize(), elapsed(start),
+                   new File(directory, FeatureIndex.FILE_NAME).getPath());
+        err.print(PipelineMetrics.GLOBAL);
+        return OK;
+    }
+
+    private static int query(final Arguments arguments, final PrintStream out, final PrintStream err) {
+        final var directory = arguments.positional(0, "directory");
+        final var image     = arguments.positional(1, "image");
+        final var k         = arguments.getInt("k", 20);
+        final var mode      = arguments.get("mode", "intensity");
+        final var search    = arguments.get("search", "scan");
+        if (k < 1) throw new IllegalArgumentException("--k must be at least 1");
+
+        final var images  = load(directory, arguments);
+        final var options = new FeatureMatrix.Options().searchEpsilon(arguments.getDouble("epsilon", 0.0));
+        if (images.getSize() == 0) throw new RuntimeException("no supported images in " + directory);
+
+        final var matrix = new FeatureMatrix(images, options);
+        final var start  = System.nanoTime();
+        final var index  = images.getNames().indexOf(image);
+
+        if (mode.equals("relevance")) {
+            if (index == -1) throw new RuntimeException("relevance feedback needs an image of the collection, not " + image);
+
+            final var relevant = new boolean[images.getSize()];
+            final var marked   = arguments.get("relevant", "").isEmpty() ? new String[0] : arguments.get("relevant").split(",");
+            final var order    = new int[marked.length];
+            for (int i = 0; i < marked.length; i++) {
+                order[i] = images.getNames().indexOf(marked[i]);
+                if (order[i] == -1) throw new RuntimeException("no image named " + marked[i]);
+                relevant[order[i]] = true;
+            }
+
+            switch (search) {
+                case "scan" -> {
+                    final var distances = matrix.relevanceAnalysis(index, order, relevant);
+                    print(out, images, Ranking.byDistance(distances).top(k), distances);
+                }
+                case "pq" -> print(out, images, matrix.rankRelevance(index, order, relevant).top(k), null);
+                default   -> throw new IllegalArgumentException("relevance mode supports --search scan or pq, not " + search);
+            }
+        } else {
+            final var type   = histogramType(mode);
+            final var method = searchMethod(search);
+
+            // an image of the collection is looked up, anything else is decoded as a file
+            final var query = (index != -1) ? rowOf(matrix.getHistograms(type), index)
+                                            : FeatureMatrix.getHistogram(ImageCollection.readFeatures(new File(image), images.getOptions().getSubsampling()), type);
+            final var top       = matrix.rank(type, query, method).top(k);
+            final var distances = new double[images.getSize()];
+            for (final var i : top) distances[i] = matrix.getHistograms(type).distance(i, query);
+            print(out, images, top, distances);
+        }
+
+        err.printf("queried %d images in %d ms%n", images.getSize(), elapsed(start));
+        return OK;
+    }
+
+    private static int serve(final Arguments arguments, final PrintStream err) {
+        final var directory = arguments.positional(0, "directory");
+        final var threads   = arguments.getInt("threads", 0);
+        final var options   = new QueryServer.Options().host(arguments.get("host", "localhost"))
+                                                       .port(arguments.getInt("port", 8080))
+                                                       .threads(threads)
+                                                       .subsampling(arguments.getInt("subsampling", 1));
+
+        // the threads option sets the request threads here, the collection decodes with its default
+        final var images = load(directory, arguments.without("threads"));
+        if (images.getSize() == 0) throw new RuntimeException("no supported images in " + directory);
+
+        final var matrix = new FeatureMatrix(images, new FeatureMatrix.Options().searchEpsilon(arguments.getDouble("epsilon", 0.0)));
+        final var server = new QueryServer(matrix, options);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+        server.start();
+
+        err.printf("serving %d images on http://%s:%d (%s)%n", images.getSize(), options.getHost(), server.getPort(),
+                   server.isVirtualThreaded() ? "virtual threads" : "platform threads");
+        try {
+            server.awaitStop();
+        } catch (InterruptedException e) {
+            server.stop(0);
+        }
+        return OK;
+    }
+
+    private static int generate(final Arguments arguments, final PrintStream err) {
+        final var directory    = new File(arguments.positional(0, "directory"));
+        final var distribution = arguments.get("distribution", "clustered");
+        final var defaults     = new SyntheticImages.Options();
+        final var options      = new SyntheticImages.Options().count(arguments.getInt("count", defaults.getCount()))
+                                                              .resolution(arguments.getInt("width",  defaults.getWidth()),
+                                                                          arguments.getInt("height", defaults.getHeight()))
+                                                              .seed(arguments.getLong("seed", defaults.getSeed()));
+        switch (distribution) {
+            case "uniform"   -> options.distribution(SyntheticImages.Distribution.UNIFORM);
+            case "clustered" -> options.distribution(SyntheticImages.Distribution.CLUSTERED);
+            case "palette"   -> options.distribution(SyntheticImages.Distribution.PALETTE);
+            default          -> throw new IllegalArgumentException("unknown distribution '" + distribution + "'");
+        }
+
+        final var start = System.nanoTime();
+        new SyntheticImages(options).write(directory, arguments.getInt("threads", FeatureMatrix.DEFAULT_PARALLELISM));
+        err.printf("generated %d images in %d ms (%s)%n", options.getCount(), elapsed(start), directory.getPath());
+        return OK;
+    }
+
+    /**
+     * Returns the histogram type compared by the given query mode.
+     *
+     * @param mode - Either {@code intensity} or {@code color-code}.
+     * @return The histogram type of the mode.
+     * @throws IllegalArgumentException If the mode is unknown.
+     */
+    static HistogramType histogramType(final String mode) {
+        return switch (mode) {
+            case "intensity"  -> HistogramType.INTENSITY;
+            case "color-code" -> HistogramType.COLOR_CODE;
+            default           -> throw new IllegalArgumentException("unknown mode '" + mode + "'");
+        };
+    }
+
+    /**
+     * Returns the search method with the given name.
+     *
+     * @param search - One of {@code scan}, {@code pruned}, {@code vptree} or
+     *                 {@code inverted}.
+     * @return The search method with the name.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    static SearchMethod searchMethod(final String search) {
+        return switch (search) {
+            case "scan"     -> SearchMethod.SCAN;
+            case "pruned"   -> SearchMethod.PRUNED;
+            case "vptree"   -> SearchMethod.VP_TREE;
+            case "inverted" -> SearchMethod.INVERTED;
+            default         -> throw new IllegalArgumentException("histogram searches support scan, pruned, vptree or inverted, not " + search);
+        };
+    }
+
+    // loads the directory as a streaming, indexed collection
+    private static ImageCollection load(final String directory, final Arguments arguments) {
+        if (!new File(directory).isDirectory()) throw new RuntimeException("not a directory: " + directory);
+
+        final var options = new ImageCollection.Options().streaming(true).indexed(true)
+                                                         .subsampling(arguments.getInt("subsampling", 1));
+        if (arguments.has("threads")) options.threads(arguments.getInt("threads", 1));
+        return new ImageCollection(directory, options);
+    }
+
+    private static double[] rowOf(final FeatureStore store, final int image) {
+        final var row = new double[store.getStride()];
+        store.copyRow(image, row);
+        return row;
+    }
+
+    private static void print(final PrintStream out, final ImageCollection images, final int[] top, final double[] distances) {
+        for (int rank = 0; rank < top.length; rank++) {
+            final var distance = (distances == null) ? "-" : Double.toString(distances[top[rank]]);
+            out.println((rank + 1) + "\t" + distance + "\t" + images.getNameAt(top[rank]));
+        }
+    }
+
+    private static long elapsed(final long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * The positional arguments and {@code --name value} options of a command.
+     */
+    private record Arguments(String[] positional, Map<String, String> options) {
+        private static Arguments parse(final String[] args) {
+            final var positional = new String[args.length];
+            final var options    = new HashMap<String, String>();
+            var count = 0;
+
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    positional[count++] = args[i];
+                    continue;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + args[i]);
+                options.put(args[i].substring(2), args[++i]);
+            }
+            return new Arguments(Arrays.copyOf(positional, count), options);
+        }
+
+        private String positional(final int index, final String name) {
+            if (index >= positional.length) throw new IllegalArgumentException("missing " + name);
+            return positional[index];
+        }
+
+        private Arguments without(final String name) {
+            final var remaining = new HashMap<>(options);
+            remaining.remove(name);
+            return new Arguments(positional, remaining);
+        }
+
+        private boolean has(final String name)                       { return options.containsKey(name);                }
+        private String  get(final String name)                       { return options.get(name);                        }
+        private String  get(final String name, final String fallback) { return options.getOrDefault(name, fallback); }
+
+        private int getInt(final String name, final int fallback) {
+            try {
+                return has(name) ? Integer.parseInt(get(name)) : fallback;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be an integer");
+            }
+        }
+
+        private long getLong(final String name, final long fallback) {
+            try {
+                return has(name) ? Long.parseLong(get(name)) : fallback;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be an integer");
+            }
+        }
+
+        private double getDouble(final String name, final double fallback) {
+            try {
+                return has(name) ? Double.parseDouble(get(name)) : fallback;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be a number");
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package cbir;
+
+import java.util.Arrays;
+
+/**
+ * An inverted index from each histogram bin to the images in which that bin
+ * is significant, used to find the candidates for a query before comparing
+ * them exactly. It is meant for color-code histograms, where most images
+ * concentrate their pixels in a handful of bins.
+ *
+ * <br>
+ * <br>
+ * A bin is significant in an image if it holds at least {@code threshold} of
+ * the image's pixels. The fullest bin of each image is always significant,
+ * so every image is listed at least once. The candidates for a query are the
+ * images listed under any of the query's significant bins.
+ *
+ * <br>
+ * <br>
+ * Every image that isn't a candidate holds less than {@code threshold} in
+ * each of the query's significant bins, which bounds its distance from below:
+ *
+ * <br>
+ * <br>
+ * {@code distance ≥ 2 * Σ max(0, q(b) - threshold) - (Σ q - min Σ x)}
+ *
+ * <br>
+ * <br>
+ * summing over the query's significant bins {@code b}. If the k-th nearest
+ * candidate is nearer than this bound, the candidates hold the exact k nearest
+ * images. Otherwise the search falls back to a full scan, so the results
+ * always match a scan of every image.
+ */
+public class ColorCodeIndex {
+    public static final double DEFAULT_THRESHOLD = 0.05;
+
+    private static final double SLACK = 1e-12; // absorbs rounding in the lower bound
+
+    private final FeatureStore store;       // histograms of each image
+    private final double       threshold;   // smallest share of an image's pixels in a significant bin
+    private final int[]        offsets;     // start of each bin's posting list in postings, with the end as last entry
+    private final int[]        postings;    // images in which each bin is significant, grouped by bin
+    private final double       minimumMass; // smallest sum of the bins of any image
+
+    public ColorCodeIndex(final FeatureStore store) {
+        this(store, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Builds the posting lists of every bin of the given histograms.
+     *
+     * @param store     - The histograms of each image, with each bin divided
+     *                    by the size of its image.
+     * @param threshold - The smallest share of an image's pixels that makes
+     *                    a bin significant in that image.
+     */
+    public ColorCodeIndex(final FeatureStore store, final double threshold) {
+        if (threshold <= 0 || threshold > 1) throw new RuntimeException("ColorCodeIndex: threshold must be in (0, 1]");
+
+        final var bins    = store.getStride();
+        final var row     = new double[bins];
+        final var lengths = new int[bins];
+        var mass = Double.POSITIVE_INFINITY;
+
+        // count the significant bins of each image, then fill the posting lists in image order
+        for (int i = 0; i < store.getSize(); i++) {
+            store.copyRow(i, row);
+            mass = Math.min(mass, Utility.accumulate(row));
+            final var significant = significantBins(row, threshold);
+            for (int b = 0; b < bins; b++) if (significant[b]) lengths[b]++;
+        }
+
+        this.store       = store;
+        this.threshold   = threshold;
+        this.minimumMass = (store.getSize() == 0) ? 0.0 : mass;
+        this.offsets     = new int[bins + 1];
+        for (int b = 0; b < bins; b++) offsets[b + 1] = offsets[b] + lengths[b];
+        this.postings    = new int[offsets[bins]];
+
+        final var next = Arrays.copyOf(offsets, bins);
+        for (int i = 0; i < store.getSize(); i++) {
+            store.copyRow(i, row);
+            final var significant = significantBins(row, threshold);
+            for (int b = 0; b < bins; b++) if (significant[b]) postings[next[b]++] = i;
+        }
+    }
+
+    public final int    getSize()      { return store.getSize(); }
+    public final double getThreshold() { return threshold;       }
+
+    /**
+     * @return The total length of the posting lists.
+     */
+    public final int getPostingCount() {
+        return postings.length;
+    }
+
+    /**
+     * Returns the images in which the given bin is significant.
+     *
+     * @param bin - The index of the bin.
+     * @return The indices of the images listed under the bin, in ascending
+     *         order.
+     */
+    public final int[] getPostings(final int bin) {
+        return Arrays.copyOfRange(postings, offsets[bin], offsets[bin + 1]);
+    }
+
+    /**
+     * Returns the candidates for the given query: the images listed under
+     * any of the query's significant bins.
+     *
+     * @param query - The histogram of the query.
+     * @return The indices of the candidate images, in ascending order.
+     */
+    public int[] candidates(final double[] query) {
+        final var significant = significantBins(query, threshold);
+        final var listed      = new boolean[store.getSize()];
+        var count = 0;
+        for (int b = 0; b < query.length; b++) {
+            if (!significant[b]) continue;
+            for (int p = offsets[b]; p < offsets[b + 1]; p++) {
+                if (!listed[postings[p]]) {
+                    listed[postings[p]] = true;
+                    count++;
+                }
+            }
+        }
+
+        final var candidates = new int[count];
+        for (int i = 0, c = 0; c < count; i++) if (listed[i]) candidates[c++] = i;
+        return candidates;
+    }
+
+    /**
+     * Returns the {@code k} images nearest to the given query by Manhattan
+     * distance. Only the candidates of the query are compared with it, unless
+     * they can't be shown to hold the {@code k} nearest images, in which case
+     * every image is compared.
+     *
+     * @param query - The histogram to search for.
+     * @param k     - The number of images to return.
+     * @return The indices of the {@code k} nearest images, nearest first, with
+     *         images at the same distance ordered by index.
+     */
+    public int[] nearest(final double[] query, final int k) {
+        final var count      = Math.min(k, store.getSize());
+        final var candidates = candidates(query);
+
+        if (candidates.length >= count && count > 0) {
+            final var distances = new double[candidates.length];
+            for (int i = 0; i < candidates.length; i++) distances[i] = store.distance(candidates[i], query);
+
+            final var order = Ranking.nearest(distances, candidates, count);
+            if (distances[order[count - 1]] < lowerBound(query) - SLACK) {
+                for (int i = 0; i < order.length; i++) order[i] = candidates[order[i]];
+                return order;
+            }
+        }
+
+        // the candidates may miss some of the nearest images, compare every image
+        final var distances = new double[store.getSize()];
+        final var identity  = new int[store.getSize()];
+        for (int i = 0; i < distances.length; i++) distances[i] = store.distance(i, query);
+        Arrays.setAll(identity, i -> i);
+        return Ranking.nearest(distances, identity, count);
+    }
+
+    /**
+     * Returns the ranking of the images by their distance from the given
+     * query, nearest first. The ranking is extended by searching for more
+     * neighbours as deeper ranks are requested.
+     *
+     * @param query - The histogram to search for.
+     * @return A ranking of the images by distance.
+     */
+    public Ranking rank(final double[] query) {
+        final var histogram = query.clone();
+        return new Ranking(store.getSize()) {
+            @Override
+            protected int[] rank(final int count) {
+                return ColorCodeIndex.this.nearest(histogram, count);
+            }
+        };
+    }
+
+    // distance from the query that every image that isn't one of its candidates exceeds
+    private double lowerBound(final double[] query) {
+        final var significant = significantBins(query, threshold);
+        var excess = 0.0;
+        for (int b = 0; b < query.length; b++) if (significant[b]) excess += Math.max(0.0, query[b] - threshold);
+        return 2 * excess - (Utility.accumulate(query) - minimumMass);
+    }
+
+    // bins holding at least threshold of the histogram, and its fullest bin
+    private static boolean[] significantBins(final double[] histogram, final double threshold) {
+        final var significant = new boolean[histogram.length];
+        var fullest = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            significant[b] = histogram[b] >= threshold;
+            if (histogram[b] > histogram[fullest]) fullest = b;
+        }
+        significant[fullest] = true;
+        return significant;
+    }
+}
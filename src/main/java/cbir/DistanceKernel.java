@@ -0,0 +1,147 @@
+package cbir;
+
+/**
+ * Computes Manhattan distances between rows of primitive feature values. The
+ * kernel used by the feature stores is chosen once, when this class is
+ * initialized, from the {@code cbir.kernel} system property:
+ *
+ * <ul>
+ * <li> {@code scalar} - Plain loops, one feature at a time (the default).
+ * <li> {@code vector} - SIMD loops built on the {@code jdk.incubator.vector}
+ *                       module, which must be added to the JVM with
+ *                       {@code --add-modules jdk.incubator.vector}.
+ * </ul>
+ *
+ * <br>
+ * <br>
+ * If the vector kernel is requested but the module isn't available, the
+ * scalar kernel is used instead.
+ */
+public interface DistanceKernel {
+    /**
+     * The kernel selected by the {@code cbir.kernel} system property.
+     */
+    DistanceKernel DEFAULT = select(System.getProperty("cbir.kernel", "scalar"));
+
+    /**
+     * The number of features compared between two checks of the partial sum
+     * by the early-abandoning distance.
+     */
+    int ABANDON_BLOCK = 8;
+
+    /**
+     * @return The name of this kernel, as accepted by the {@code cbir.kernel}
+     *         system property.
+     */
+    String getName();
+
+    /**
+     * Calculates the Manhattan distance between {@code length} values of
+     * {@code values}, starting at {@code offset}, and the first
+     * {@code length} values of {@code query}:
+     * {@code Σ | values(offset + i) - query(i) |}.
+     *
+     * @param values - Array holding the features of the image.
+     * @param offset - Index of the image's first feature in {@code values}.
+     * @param query  - The features to compare the image's features with.
+     * @param length - The number of features to compare.
+     * @return The distance between the image and the query.
+     */
+    double distance(double[] values, int offset, double[] query, int length);
+
+    /**
+     * Calculates the Manhattan distance like
+     * {@link #distance(double[], int, double[], int) distance}, but abandons
+     * the calculation once the partial sum exceeds {@code limit}. The partial
+     * sum is checked after every {@value #ABANDON_BLOCK} features, so the
+     * check doesn't get in the way of the additions. The features are added
+     * in the same order as by the scalar kernel, so a distance that isn't
+     * abandoned is the same as the scalar distance.
+     *
+     * @param values - Array holding the features of the image.
+     * @param offset - Index of the image's first feature in {@code values}.
+     * @param query  - The features to compare the image's features with.
+     * @param length - The number of features to compare.
+     * @param limit  - The distance beyond which the calculation is abandoned.
+     * @return The distance between the image and the query if it is at most
+     *         {@code limit}, otherwise a partial sum greater than
+     *         {@code limit}.
+     */
+    default double distance(final double[] values, final int offset, final double[] query, final int length, final double limit) {
+        return distance(values, offset, query, length, limit, null);
+    }
+
+    /**
+     * Calculates the early-abandoning Manhattan distance like
+     * {@link #distance(double[], int, double[], int, double) distance}, and
+     * reports how many features were read before the calculation finished or
+     * was abandoned.
+     *
+     * @param values - Array holding the features of the image.
+     * @param offset - Index of the image's first feature in {@code values}.
+     * @param query  - The features to compare the image's features with.
+     * @param length - The number of features to compare.
+     * @param limit  - The distance beyond which the calculation is abandoned.
+     * @param read   - Array whose first element is set to the number of
+     *                 features read, or {@code null}.
+     * @return The distance between the image and the query if it is at most
+     *         {@code limit}, otherwise a partial sum greater than
+     *         {@code limit}.
+     */
+    default double distance(final double[] values, final int offset, final double[] query, final int length, final double limit,
+                            final int[] read) {
+        var distance = 0.0;
+        var i        = 0;
+        for (var end = ABANDON_BLOCK; end < length && distance <= limit; end += ABANDON_BLOCK)
+            for (; i < end; i++) distance += Math.abs(values[offset + i] - query[i]);
+        for (; i < length && distance <= limit; i++) distance += Math.abs(values[offset + i] - query[i]);
+        if (read != null) read[0] = i;
+        return distance;
+    }
+
+    /**
+     * Calculates the weighted Manhattan distance between {@code length}
+     * values of {@code values}, starting at {@code offset}, and the first
+     * {@code length} values of {@code query}:
+     * {@code Σ w(i) * | values(offset + i) - query(i) |}.
+     *
+     * @param values - Array holding the features of the image.
+     * @param offset - Index of the image's first feature in {@code values}.
+     * @param query  - The features to compare the image's features with.
+     * @param weight - Weight assigned to each feature.
+     * @param length - The number of features to compare.
+     * @return The weighted distance between the image and the query.
+     */
+    double weightedDistance(double[] values, int offset, double[] query, double[] weight, int length);
+
+    /**
+     * Returns the kernel with the given name, falling back to the scalar
+     * kernel if the vector kernel can't be loaded.
+     *
+     * @param name - The name of the kernel, either {@code scalar} or
+     *               {@code vector}.
+     * @return The kernel with the given name, or the scalar kernel.
+     */
+    static DistanceKernel select(final String name) {
+        return switch (name) {
+            case "scalar" -> ScalarKernel.INSTANCE;
+            case "vector" -> loadVectorKernel();
+            default       -> throw new RuntimeException("DistanceKernel: unknown kernel '" + name + "'");
+        };
+    }
+
+    // the vector kernel is only linked when requested, so the incubator module stays optional at runtime
+    private static DistanceKernel loadVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.err.println("DistanceKernel: jdk.incubator.vector is not available, using scalar kernel");
+            return ScalarKernel.INSTANCE;
+        }
+
+        try {
+            return (DistanceKernel) Class.forName("cbir.VectorKernel").getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            System.err.println("DistanceKernel: can't load vector kernel, using scalar kernel (" + e + ")");
+            return ScalarKernel.INSTANCE;
+        }
+    }
+}
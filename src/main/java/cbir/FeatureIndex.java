@@ -0,0 +1,169 @@
+package cbir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A binary index file, stored alongside a folder of images, that persists the
+ * histograms of every image in the folder. Each entry is keyed by the image's
+ * file name, file size and last modified time, so an entry is only reused
+ * while the file it was extracted from is unchanged.
+ */
+public class FeatureIndex {
+    public static final String FILE_NAME = ".cbir-index";
+
+    private static final int MAGIC   = 0x43424952; // "CBIR"
+    private static final int VERSION = 1;
+
+    private final File               file;        // the index file
+    private final int                subsampling; // subsampling factor the histograms were extracted with
+    private final Map<String, Entry> entries;     // index entries keyed by file name
+    private final Set<String>        visited;     // names of the files looked up or added since loading
+    private boolean                  modified;    // whether the entries differ from the index file
+
+    private FeatureIndex(final File file, final int subsampling) {
+        this.file        = file;
+        this.subsampling = subsampling;
+        this.entries     = new HashMap<>();
+        this.visited     = new HashSet<>();
+        this.modified    = false;
+    }
+
+    /**
+     * Loads the feature index of the given directory. If the directory has no
+     * index file, or the index file can't be read, or it was written with a
+     * different subsampling factor, an empty index is returned instead.
+     *
+     * @param directory   - The directory containing the indexed images.
+     * @param subsampling - The subsampling factor used to extract histograms.
+     * @return The feature index of the given directory.
+     */
+    public static FeatureIndex load(final File directory, final int subsampling) {
+        final var index = new FeatureIndex(new File(directory, FILE_NAME), subsampling);
+        if (!index.file.isFile()) return index;
+
+        try (final var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.file.toPath())))) {
+            if (input.readInt() != MAGIC)       return index;
+            if (input.readInt() != VERSION)     return index;
+            if (input.readInt() != subsampling) return index;
+
+            final var count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                final var name         = input.readUTF();
+                final var length       = input.readLong();
+                final var lastModified = input.readLong();
+                final var pixelCount   = input.readInt();
+                final var intensity    = readCounts(input, Histogram.INTENSITY_BINS);
+                final var colorCode    = readCounts(input, Histogram.COLOR_CODE_BINS);
+                final var featureCount = input.readInt();
+                final var features     = new ImageFeatures(intensity, colorCode, featureCount);
+                index.entries.put(name, new Entry(length, lastModified, pixelCount, features));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("FeatureIndex: ignoring unreadable index " + index.file.getPath());
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Looks up the histograms of the given image file. An entry is only
+     * returned if the file's size and last modified time match the values
+     * recorded when the entry was added.
+     *
+     * @param image - The image file to look up.
+     * @return The index entry of the given file, or {@code null} if the file
+     *         is not indexed or has changed since it was indexed.
+     */
+    public synchronized Entry lookup(final File image) {
+        visited.add(image.getName());
+
+        final var entry = entries.get(image.getName());
+        if (entry == null)                                return null;
+        if (entry.length() != image.length())             return null;
+        if (entry.lastModified() != image.lastModified()) return null;
+        return entry;
+    }
+
+    /**
+     * Adds the histograms of the given image file to this index, replacing any
+     * previous entry for the same file.
+     *
+     * @param image      - The image file the histograms were extracted from.
+     * @param pixelCount - The number of pixels in the full resolution image.
+     * @param features   - The histograms of the image.
+     */
+    public synchronized void put(final File image, final int pixelCount, final ImageFeatures features) {
+        visited.add(image.getName());
+        entries.put(image.getName(), new Entry(image.length(), image.lastModified(), pixelCount, features));
+        modified = true;
+    }
+
+    /**
+     * Writes this index back to its file if any entry was added since it was
+     * loaded. Entries of files that were neither looked up nor added since
+     * loading are dropped, so removed images don't accumulate in the index.
+     * The file is replaced atomically, so a failed write never leaves a
+     * truncated index behind.
+     */
+    public synchronized void save() {
+        if (entries.keySet().retainAll(visited)) modified = true;
+        if (!modified) return;
+
+        File temporary = null;
+        try {
+            temporary = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+            try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(subsampling);
+                output.writeInt(entries.size());
+                for (final var entry : entries.entrySet()) {
+                    final var value = entry.getValue();
+                    output.writeUTF(entry.getKey());
+                    output.writeLong(value.length());
+                    output.writeLong(value.lastModified());
+                    output.writeInt(value.pixelCount());
+                    writeCounts(output, value.features().getIntensity());
+                    writeCounts(output, value.features().getColorCode());
+                    output.writeInt(value.features().getPixelCount());
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            modified = false;
+        } catch (IOException e) {
+            System.err.println("FeatureIndex: failed to write index " + file.getPath());
+            if (temporary != null) temporary.delete();
+        }
+    }
+
+    private static int[] readCounts(final DataInputStream input, final int n) throws IOException {
+        final var counts = new int[n];
+        for (int i = 0; i < n; i++) counts[i] = input.readInt();
+        return counts;
+    }
+
+    private static void writeCounts(final DataOutputStream output, final int[] counts) throws IOException {
+        for (final var count : counts) output.writeInt(count);
+    }
+
+    /**
+     * A single index entry.
+     *
+     * @param length       - The size of the image file in bytes.
+     * @param lastModified - The last modified time of the image file.
+     * @param pixelCount   - The number of pixels in the full resolution image.
+     * @param features     - The histograms of the image.
+     */
+    public record Entry(long length, long lastModified, int pixelCount, ImageFeatures features) {}
+}
@@ -1,48 +1,311 @@
 package cbir;
 
+import java.nio.file.Path;
+import java.util.DoubleSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 public class FeatureMatrix {
-    private final ImageCollection imageCollection;
-    private final Double[][]      intensityDistance;
-    private final Double[][]      colorCodeDistance;
-    private final Double[][]      normalized;
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    public static final int FEATURE_COUNT       = Histogram.INTENSITY_BINS + Histogram.COLOR_CODE_BINS;
+
+    // appended to the feature store path to name the files of the histogram stores
+    public static final String INTENSITY_SUFFIX  = ".intensity";
+    public static final String COLOR_CODE_SUFFIX = ".color-code";
+
+    // kinds of the relevance feedback queries, as recorded next to the search method of the other queries
+    public static final String RELEVANCE_QUERY           = "RELEVANCE";
+    public static final String QUANTIZED_RELEVANCE_QUERY = "RELEVANCE_PQ";
+
+    private final ImageCollection         imageCollection;
+    private final FeatureStore            intensity;  // intensity histograms divided by image size
+    private final FeatureStore            colorCode;  // color-code histograms divided by image size
+    private final FeatureStore            normalized; // normalized feature matrix used for relevance feedback
+    private final Map<QueryKey, double[]> queryCache; // recently computed query distances, least recent first
+    private final VpTree[]                indices;    // metric index over each type of histogram, built on first use
+    private final PrunedScan[]            scans;      // pruned scan over each type of histogram, built on first use
+    private ProductQuantizer              quantizer;  // compressed codes of the normalized features, built on first use
+    private ColorCodeIndex                inverted;   // inverted index over the color-code bins, built on first use
+    private final Object                  quantizerLock; // guards quantizer, so training it doesn't block other searches
+    private final Object                  invertedLock;  // guards inverted
+    private final Options                 options;
 
     public FeatureMatrix(final ImageCollection imageCollection) {
+        this(imageCollection, new Options());
+    }
+
+    /**
+     * Creates the feature matrix for the given collection, extracting the
+     * histograms of up to {@code parallelism} images concurrently. The
+     * resulting matrices do not depend on the degree of parallelism, since
+     * each image's histograms are always stored at that image's index.
+     *
+     * @param imageCollection - The collection of images to process.
+     * @param parallelism     - The maximum number of threads used to extract
+     *                          histograms. A value of {@code 1} processes the
+     *                          images sequentially on the calling thread.
+     */
+    public FeatureMatrix(final ImageCollection imageCollection, final int parallelism) {
+        this(imageCollection, new Options().parallelism(parallelism));
+    }
+
+    /**
+     * Creates the feature matrix for the given collection using the given
+     * options. When the options set a feature store, the histograms the
+     * collection extracted while loading are released once they are copied
+     * into the matrix, so the features are only held off the heap.
+     *
+     * @param imageCollection - The collection of images to process.
+     * @param options         - Options controlling how the matrices are
+     *                          computed and stored.
+     */
+    public FeatureMatrix(final ImageCollection imageCollection, final Options options) {
         if (imageCollection == null)        throw new RuntimeException("FeatureMatrix: can't process null ImageCollection");
         if (imageCollection.getSize() == 0) throw new RuntimeException("FeatureMatrix: can't process empty ImageCollection");
 
-        final var intensity = new Double[imageCollection.getSize()][];
-        final var colorCode = new Double[imageCollection.getSize()][];
-        final var sizes     = new int[imageCollection.getSize()];
+        final var size = imageCollection.getSize();
+        this.intensity = createStore(options.getFeatureStore(), INTENSITY_SUFFIX, size, Histogram.INTENSITY_BINS);
+        this.colorCode = createStore(options.getFeatureStore(), COLOR_CODE_SUFFIX, size, Histogram.COLOR_CODE_BINS);
+
+        // get intensity and color-code histogram for each image in imageCollection, divided by the image size
+        final var matrixStart = PipelineMetrics.GLOBAL.start();
+        forEachImage(size, options.getParallelism(), i -> {
+            final var features = imageCollection.getFeaturesOfImage(i);
+            storeHistogram(intensity, i, features.getIntensity(), features.getPixelCount());
+            storeHistogram(colorCode, i, features.getColorCode(), features.getPixelCount());
+        });
+        PipelineMetrics.GLOBAL.record(PipelineMetrics.Stage.MATRIX, matrixStart);
+        if (options.getFeatureStore() != null) imageCollection.releaseFeatures();
+
+        this.options         = options;
+        this.queryCache      = createQueryCache(options.getQueryCacheSize());
+        this.indices         = new VpTree[HistogramType.values().length];
+        this.scans           = new PrunedScan[HistogramType.values().length];
+        this.quantizerLock   = new Object();
+        this.invertedLock    = new Object();
+        this.normalized      = createStore(options.getFeatureStore(), "", size, FEATURE_COUNT);
+        this.imageCollection = imageCollection;
+
+        final var normalizeStart = PipelineMetrics.GLOBAL.start();
+        calculateNormalizedMatrix(intensity, colorCode, normalized);
+        PipelineMetrics.GLOBAL.record(PipelineMetrics.Stage.NORMALIZE, normalizeStart);
+    }
+
+    public final ImageCollection getImageCollection()    { return imageCollection; }
+    public final FeatureStore    getNormalizedFeatures() { return normalized;      }
+    public final Options         getOptions()            { return options;         }
+
+    /**
+     * Returns the histograms of the given type for every image in the
+     * collection, with each bin divided by the size of its image.
+     *
+     * @param type - The type of histogram to return.
+     * @return A feature store holding one histogram per image.
+     */
+    public final FeatureStore getHistograms(final HistogramType type) {
+        return (type == HistogramType.INTENSITY) ? intensity : colorCode;
+    }
+
+    /**
+     * Calculates the distance between the given query image and every image
+     * in the collection, comparing the histograms of the given type. The
+     * distances are computed on demand, in time linear in the size of the
+     * collection. The most recently requested queries are cached, so going
+     * back to a previous query doesn't compute its distances again.
+     *
+     * <br>
+     * <br>
+     * The distance between two images is calculated as described by
+     * {@link Histogram#calculateDistance(double[], double[], int, int, int)
+     * calculateDistance}.
+     *
+     * @param type  - The type of histogram to compare.
+     * @param image - The index of the query image.
+     * @return An array holding the distance between the query image and each
+     *         image in the collection, indexed by image. The caller is free to
+     *         modify the returned array.
+     */
+    public double[] getDistances(final HistogramType type, final int image) {
+        final var key = new QueryKey(type, image);
+        synchronized (queryCache) {
+            final var cached = queryCache.get(key);
+            if (cached != null) return cached.clone();
+        }
+
+        final var histograms = getHistograms(type);
+        final var query      = new double[histograms.getStride()];
+        histograms.copyRow(image, query);
+
+        final var distances = getDistances(type, query);
+        synchronized (queryCache) {
+            queryCache.put(key, distances);
+        }
+        return distances.clone();
+    }
+
+    /**
+     * Calculates the distance between the given query histogram and every
+     * image in the collection. The query doesn't have to belong to the
+     * collection, see {@link #getHistogram(ImageFeatures, HistogramType)
+     * getHistogram}.
+     *
+     * @param type  - The type of histogram to compare.
+     * @param query - The query histogram, with each bin divided by the size
+     *                of the query image.
+     * @return An array holding the distance between the query and each image
+     *         in the collection, indexed by image.
+     */
+    public double[] getDistances(final HistogramType type, final double[] query) {
+        final var histograms = getHistograms(type);
+        if (query.length != histograms.getStride()) throw new RuntimeException("FeatureMatrix: query histogram has the wrong number of bins");
+
+        final var distances = new double[histograms.getSize()];
+        for (int i = 0; i < distances.length; i++) distances[i] = histograms.distance(i, query);
+        return distances;
+    }
+
+    /**
+     * Ranks the images by their distance from the given query image,
+     * comparing the histograms of the given type. Instead of comparing the
+     * query with every image, the nearest images are found with a
+     * {@link VpTree} over the histograms, searched with the epsilon set in
+     * the options. The tree of each histogram type is built on first use.
+     *
+     * @param type  - The type of histogram to compare.
+     * @param image - The index of the query image.
+     * @return A ranking of the images by distance from the query image,
+     *         nearest first. Images at the same distance are ranked by index.
+     */
+    public Ranking rank(final HistogramType type, final int image) {
+        return rank(type, image, SearchMethod.VP_TREE);
+    }
+
+    /**
+     * Ranks the images by their distance from the given query image,
+     * comparing the histograms of the given type and finding the nearest
+     * images with the given search method. The structures searched are built
+     * on first use. Only the {@code VP_TREE} method is approximate, when the
+     * search epsilon set in the options is positive.
+     *
+     * @param type   - The type of histogram to compare.
+     * @param image  - The index of the query image.
+     * @param method - How to find the nearest images. The {@code INVERTED}
+     *                 method only supports color-code histograms.
+     * @return A ranking of the images by distance from the query image,
+     *         nearest first. Images at the same distance are ranked by index.
+     */
+    public Ranking rank(final HistogramType type, final int image, final SearchMethod method) {
+        if (method == SearchMethod.SCAN) return measured(method.name(), 0, scan(() -> getDistances(type, image)));
+
+        final var histograms = getHistograms(type);
+        final var query      = new double[histograms.getStride()];
+        histograms.copyRow(image, query);
+        return rank(type, query, method);
+    }
+
+    /**
+     * Ranks the images by their distance from the given query histogram,
+     * finding the nearest images with the given search method. The query
+     * doesn't have to belong to the collection, see
+     * {@link #getHistogram(ImageFeatures, HistogramType) getHistogram}.
+     *
+     * @param type   - The type of histogram to compare.
+     * @param query  - The query histogram, with each bin divided by the size
+     *                 of the query image.
+     * @param method - How to find the nearest images. The {@code INVERTED}
+     *                 method only supports color-code histograms.
+     * @return A ranking of the images by distance from the query, nearest
+     *         first. Images at the same distance are ranked by index.
+     */
+    public Ranking rank(final HistogramType type, final double[] query, final SearchMethod method) {
+        if (query.length != getHistograms(type).getStride()) throw new RuntimeException("FeatureMatrix: query histogram has the wrong number of bins");
+
+        final var histogram = query.clone();
+        return measured(method.name(), 0, switch (method) {
+            case SCAN     -> scan(() -> getDistances(type, histogram));
+            case PRUNED   -> getPrunedScan(type).rank(histogram);
+            case VP_TREE  -> getIndex(type).rank(histogram, options.getSearchEpsilon());
+            case INVERTED -> {
+                if (type != HistogramType.COLOR_CODE) throw new RuntimeException("FeatureMatrix: inverted index only covers color-code histograms");
+                yield getColorCodeIndex().rank(histogram);
+            }
+        });
+    }
+
+    /**
+     * Returns the histogram of the given type from the given features, with
+     * each bin divided by the number of pixels the features were extracted
+     * from, as the histograms of the images in the collection are stored.
+     *
+     * @param features - The features of an image.
+     * @param type     - The type of histogram to return.
+     * @return The histogram of the given type, divided by the image size.
+     */
+    public static double[] getHistogram(final ImageFeatures features, final HistogramType type) {
+        final var bins      = (type == HistogramType.INTENSITY) ? features.getIntensity() : features.getColorCode();
+        final var histogram = new double[bins.length];
+        for (int i = 0; i < bins.length; i++) histogram[i] = (double) bins[i] / features.getPixelCount();
+        return histogram;
+    }
 
-        // get intensity and color-code histogram for each image in imageCollection
-        for (int i = 0; i < imageCollection.getSize(); i++) {
-            final var colors = imageCollection.getPixelValuesOfImage(i);
-            intensity[i]     = Histogram.intensityHistogram(colors);
-            colorCode[i]     = Histogram.colorCodeHistogram(colors);
-            sizes[i]         = colors.size();
+    /**
+     * Returns the metric index over the histograms of the given type,
+     * building it if this is the first time it is requested.
+     *
+     * @param type - The type of histogram indexed.
+     * @return The index over the histograms of the given type.
+     */
+    public final VpTree getIndex(final HistogramType type) {
+        synchronized (indices) {
+            if (indices[type.ordinal()] == null) indices[type.ordinal()] = new VpTree(getHistograms(type));
+            return indices[type.ordinal()];
         }
+    }
 
-        this.intensityDistance = calculateDistanceMatrix(intensity, null, sizes);
-        this.colorCodeDistance = calculateDistanceMatrix(colorCode, null, sizes);
-        this.normalized        = calculateNormalizedMatrix(intensity, colorCode, sizes);
-        this.imageCollection   = imageCollection;
+    /**
+     * Returns the pruned scan over the histograms of the given type, creating
+     * it if this is the first time it is requested. Its statistics count the
+     * work avoided by every {@code PRUNED} search of that type.
+     *
+     * @param type - The type of histogram scanned.
+     * @return The pruned scan over the histograms of the given type.
+     */
+    public final PrunedScan getPrunedScan(final HistogramType type) {
+        synchronized (scans) {
+            if (scans[type.ordinal()] == null) scans[type.ordinal()] = new PrunedScan(getHistograms(type));
+            return scans[type.ordinal()];
+        }
     }
 
-    public final Double[][] getIntensityDistanceMatrix() { return intensityDistance; }
-    public final Double[][] getColorCodeDistanceMatrix() { return colorCodeDistance; }
-    public final ImageCollection getImageCollection()    { return imageCollection;   }
+    /**
+     * Returns the inverted index over the color-code histograms, building it
+     * if this is the first time it is requested.
+     *
+     * @return The inverted index over the color-code bins.
+     */
+    public final ColorCodeIndex getColorCodeIndex() {
+        synchronized (invertedLock) {
+            if (inverted == null) inverted = new ColorCodeIndex(colorCode);
+            return inverted;
+        }
+    }
 
     /**
      * Compares two image indices, {@code a} and {@code b}, based on their
-     * respective distances from a reference image, {@code image}, within the
-     * given distance matrix. The comparison is performed by evaluating the
-     * differences in distances between the reference image, {@code image},
-     * and images {@code a} and {@code b}.
+     * respective distances from a reference image, as given by the reference
+     * image's distances to every image in the collection (see
+     * {@link #getDistances(HistogramType, int) getDistances}).
      *
      * <ul>
-     * <li> If the result is positive, image {@code a} is closer to the
-     *      reference image than image {@code b}.
-     * <li> If the result is negative, image {@code b} is closer to the
+     * <li> If the result is positive, image {@code b} is closer to the
+     *      reference image than image {@code a}.
+     * <li> If the result is negative, image {@code a} is closer to the
      *      reference image than image {@code b}.
      * <li> If the result is zero, both images are equidistant from the
      *      reference image.
@@ -51,28 +314,23 @@ public class FeatureMatrix {
      * <br>
      * <br>
      * The method calculates the difference in distances using the following
-     * formula: {@code difference = matrix[image][a] - matrix[image][b]}
-     *
-     * For more information about the formula above, please see
-     * {@link #calculateDistanceMatrix(Double[][], Double[], int[])
-     * calculateDistanceMatrix}
-     *
-     * @param matrix - The distance matrix containing distances between images.
-     * @param image  - The index of the reference image in the distance matrix.
-     * @param a      - The index of the first image to compare with the
-     *                 reference image.
-     * @param b      - The index of the second image to compare with the
-     *                 reference image.
+     * formula: {@code difference = distances[a] - distances[b]}
+     *
+     * @param distances - The distances between the reference image and every
+     *                    image in the collection.
+     * @param a         - The index of the first image to compare with the
+     *                    reference image.
+     * @param b         - The index of the second image to compare with the
+     *                    reference image.
      * @return An integer value: {@code -1}, {@code 0}, or {@code 1} if the
      *         distance between {@code a } and the reference image is less than,
      *         equal to, or greater than the distance between {@code b} and the
      *         reference image.
      */
-    public static int compare(final Double[][] matrix,
-                              final int        image,
-                              final int        a,
-                              final int        b) {
-        final var difference = matrix[image][a] - matrix[image][b];
+    public static int compare(final double[] distances,
+                              final int      a,
+                              final int      b) {
+        final var difference = distances[a] - distances[b];
         if (difference > 0) return 1;
         if (difference < 0) return -1;
         return 0;
@@ -85,97 +343,224 @@ public class FeatureMatrix {
      * relevant. If no images are selected as relevant besides the initial query
      * image, each feature will have the same weight. Since the set of relevant
      * images is not constant, this value cannot be cached. Therefore, each time
-     * this method is called, the returned distance matrix is newly generated.
+     * this method is called, the returned distances are newly generated.
      *
      * <br>
      * <br>
-     * To get the distance between image i and image j from the returned
-     * distance matrix, you can access it by visiting the distance matrix
-     * as follows:
-     *
-     * <ul>
-     * <li> distance between image i and j = {@code rfMatrix[i][j]}
-     * <li> distance between image i and j = {@code rfMatrix[j][i]}
-     * </ul>
+     * Only the distances from the query image are calculated, so each
+     * feedback iteration takes time linear in the size of the collection.
+     * The distance between the query image and image i is
+     * {@code distances[i]}.
      *
      * @param image    - The index of the query image for which the relevance
      *                   analysis is performed.
-     * @param order    - An array indicating the order of images for relevance
-     *                   analysis.
+     * @param order    - The order in which the relevant images are added to
+     *                   the analysis, such as the images ranked so far.
+     *                   Relevant images missing from it are added after the
+     *                   others, in index order.
      * @param relevant - A boolean array indicating whether each image is
      *                   considered relevant or not.
-     * @return A 2D {@code Double} array representing the distance matrix
-     *         between the query image and all other images, calculated
-     *         based on the weights obtained from the relevant images.
+     * @return An array holding the weighted distance between the query image
+     *         and each image in the collection, calculated based on the
+     *         weights obtained from the relevant images.
      */
-    public Double[][] relevanceAnalysis(final int       image,
-                                        final Integer[] order,
-                                        final boolean[] relevant) {
-        final var feedbackMatrix = new Double[normalized.length][normalized[0].length];
-        var imageCount = 0;
+    public double[] relevanceAnalysis(final int       image,
+                                      final int[]     order,
+                                      final boolean[] relevant) {
+        return measure(RELEVANCE_QUERY, normalized.getSize(), countRelevant(image, relevant), () -> {
+            final var weight = calculateRelevanceWeight(image, order, relevant);
+            final var query  = new double[normalized.getStride()];
+            normalized.copyRow(image, query);
+
+            // return the weighted distance from the query image based on rf analysis
+            final var distances = new double[normalized.getSize()];
+            for (int i = 0; i < distances.length; i++) distances[i] = normalized.weightedDistance(i, query, weight);
+            return distances;
+        });
+    }
+
+    /**
+     * Ranks the images by their relevance feedback distance from the query
+     * image, like {@link #relevanceAnalysis(int, int[], boolean[])
+     * relevanceAnalysis}, but searches the product quantized codes of the
+     * normalized features instead of comparing the query with every image's
+     * exact features. Only the shortlisted candidates are read from the
+     * normalized feature store, to re-rank them by exact distance.
+     *
+     * @param image    - The index of the query image.
+     * @param order    - The order in which the relevant images are added to
+     *                   the analysis, such as the images ranked so far.
+     * @param relevant - A boolean array indicating whether each image is
+     *                   considered relevant or not.
+     * @return A ranking of the images by weighted distance from the query
+     *         image, nearest first.
+     */
+    public Ranking rankRelevance(final int       image,
+                                 final int[]     order,
+                                 final boolean[] relevant) {
+        final var weight = calculateRelevanceWeight(image, order, relevant);
+        final var query  = new double[normalized.getStride()];
+        normalized.copyRow(image, query);
+        return measured(QUANTIZED_RELEVANCE_QUERY, countRelevant(image, relevant), getQuantizer().rank(query, weight));
+    }
+
+    /**
+     * Returns the product quantizer over the normalized features, training it
+     * if this is the first time it is requested.
+     *
+     * @return The product quantizer over the normalized features.
+     */
+    public final ProductQuantizer getQuantizer() {
+        synchronized (quantizerLock) {
+            if (quantizer == null) quantizer = new ProductQuantizer(normalized, options.getQuantizerOptions());
+            return quantizer;
+        }
+    }
+
+    /**
+     * Calculates the feature weights for a relevance feedback iteration from
+     * the normalized features of the query image and of every other image
+     * marked relevant.
+     *
+     * @param image    - The index of the query image.
+     * @param order    - The order in which the relevant images are added to
+     *                   the analysis, such as the images ranked so far.
+     *                   Relevant images missing from it are added after the
+     *                   others, in index order.
+     * @param relevant - A boolean array indicating whether each image is
+     *                   considered relevant or not.
+     * @return An array holding the weight of each normalized feature.
+     */
+    private double[] calculateRelevanceWeight(final int       image,
+                                              final int[]     order,
+                                              final boolean[] relevant) {
+        final var imageCount     = 1 + countRelevant(image, relevant);
+        final var feedbackMatrix = new double[imageCount][normalized.getStride()];
+        final var added          = new boolean[normalized.getSize()];
+        var count = 0;
 
         // get selected image
-        Utility.copyArray(normalized[image], feedbackMatrix[imageCount++]);
+        normalized.copyRow(image, feedbackMatrix[count++]);
+        added[image] = true;
 
-        // get all other images that are marked relevant
-        for (int i = 0; i < normalized.length; i++) {
-            final var index = order[i];
-            if (relevant[index] && index != image)
-                Utility.copyArray(normalized[index], feedbackMatrix[imageCount++]);
+        // get all other images that are marked relevant, in the given order first
+        for (final var index : order) {
+            if (relevant[index] && !added[index]) {
+                normalized.copyRow(index, feedbackMatrix[count++]);
+                added[index] = true;
+            }
+        }
+        for (int index = 0; index < added.length && count < imageCount; index++) {
+            if (relevant[index] && !added[index])
+                normalized.copyRow(index, feedbackMatrix[count++]);
         }
 
         // calculate weight for each feature based on feedback matrix
-        final var weight = calculateFeatureWeight(feedbackMatrix, imageCount, feedbackMatrix[0].length);
+        return calculateFeatureWeight(feedbackMatrix, imageCount, normalized.getStride());
+    }
 
-        // return the new distance matrix based on rf analysis
-        return calculateDistanceMatrix(normalized, weight, null);
+    /**
+     * Counts the images marked relevant, besides the query image.
+     *
+     * @param image    - The index of the query image.
+     * @param relevant - A boolean array indicating whether each image is
+     *                   considered relevant or not.
+     * @return The number of relevant images other than the query image.
+     */
+    private static int countRelevant(final int image, final boolean[] relevant) {
+        return (int) IntStream.range(0, relevant.length).filter(i -> relevant[i] && i != image).count();
     }
 
     /**
-     * Calculates distance matrix for the given feature matrix containing a list
-     * histograms. The distance matrix returned stores the distance between any
-     * two images, i and j. To get the distance between image i and image j,
-     * you can access it by visiting the returned distance matrix as follows:
+     * Returns a ranking by the distances given on the first search, so that
+     * computing them is measured as part of that search.
      *
-     * <ul>
-     * <li> distance between image i and j = {@code distanceMatrix[i][j]}
-     * <li> distance between image i and j = {@code distanceMatrix[j][i]}
-     * </ul>
+     * @param distances - Computes the distance of each image from the query.
+     * @return A ranking of the images by distance.
+     */
+    private Ranking scan(final Supplier<double[]> distances) {
+        return new Ranking(normalized.getSize()) {
+            private Ranking ranking; // ranking by the distances, once they are computed
+
+            @Override
+            protected int[] rank(final int count) {
+                if (ranking == null) ranking = Ranking.byDistance(distances.get());
+                return ranking.top(count);
+            }
+        };
+    }
+
+    /**
+     * Wraps the given ranking so that each search it makes for more images is
+     * measured as one query of the given kind, see {@link #measure(String,
+     * int, int, Supplier) measure}.
      *
-     * If this method is supplied an array of weights to apply to each feature,
-     * this will calculate the weighted distance matrix for the given feature
-     * matrix.
-     *
-     * @apiNote When calling this method to get the weighted distance, the
-     *          feature matrix supplied should have normalized bin values
-     *          and size should be left {@code null} as it will not be used for
-     *          any calculations.
-     *
-     * @param matrix - Feature matrix containing a list of histogram values for
-     *                 a set of images to calculate distance matrix of.
-     * @param weight - Array containing the weight to apply to each bin when
-     *                 calculating weighted distance. If you do not want the
-     *                 distance being calculated, leave this field {@code null}.
-     * @param size   - Array containing the size of each image. The image size
-     *                 is its resolution. This can be left {@code null} if you
-     *                 are trying to calculate the weighted distance matrix.
-     * @return An array of {@code Double} values that represent the distance
-     *         matrix for the given feature matrix. This distance matrix is
-     *         equal in size to the given feature matrix.
+     * @param kind     - The kind of query.
+     * @param relevant - The number of images marked relevant.
+     * @param ranking  - The ranking to measure.
+     * @return A ranking with the same order as the given one.
      */
-    private Double[][] calculateDistanceMatrix(final Double[][] matrix,
-                                               final Double[]   weight,
-                                               final int[]      size) {
-        final var distanceMatrix = new Double[matrix.length][matrix.length];
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j <= i; j++) {
-                final var distance = (weight == null) ? Histogram.calculateDistance(matrix[i], matrix[j], size[i], size[j], matrix[i].length) :
-                                                        Histogram.calculateWeightedDistance(matrix[i], matrix[j], weight, weight.length);
-                distanceMatrix[i][j] = distance;
-                distanceMatrix[j][i] = distance;
+    private Ranking measured(final String kind, final int relevant, final Ranking ranking) {
+        return new Ranking(ranking.getSize()) {
+            @Override
+            protected int[] rank(final int count) {
+                return measure(kind, count, relevant, () -> ranking.top(count));
             }
+        };
+    }
+
+    /**
+     * Answers one query, recording it in {@link PipelineMetrics#GLOBAL} under
+     * the given kind and as a {@link PipelineEvents.Rank} event. Queries are
+     * only measured here, so the search structures know nothing about either.
+     *
+     * @param kind     - The kind of query, the name of the search method or
+     *                   one of the relevance feedback kinds.
+     * @param k        - The number of nearest images requested.
+     * @param relevant - The number of images marked relevant.
+     * @param query    - Answers the query.
+     * @return The answer to the query.
+     */
+    private <T> T measure(final String kind, final int k, final int relevant, final Supplier<T> query) {
+        final var start  = PipelineMetrics.GLOBAL.start();
+        final var event  = new PipelineEvents.Rank();
+        event.begin();
+        final var result = query.get();
+        PipelineMetrics.GLOBAL.recordQuery(kind, start);
+        event.finish(kind, normalized.getSize(), k, relevant);
+        return result;
+    }
+
+    /**
+     * Runs the given action once for every image index from {@code 0} to
+     * {@code n}. When {@code parallelism} is greater than one, the indices are
+     * processed by a dedicated fork-join pool of that size, so the work does
+     * not compete with other users of the common pool. This method returns
+     * once every index has been processed.
+     *
+     * @param n           - The number of images to process.
+     * @param parallelism - The maximum number of threads to use.
+     * @param action      - The action to perform on each image index.
+     */
+    private static void forEachImage(final int         n,
+                                     final int         parallelism,
+                                     final IntConsumer action) {
+        if (parallelism == 1 || n == 1) {
+            IntStream.range(0, n).forEach(action);
+            return;
+        }
+
+        final var pool = new ForkJoinPool(Math.min(parallelism, n));
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("FeatureMatrix: feature extraction was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("FeatureMatrix: failed to extract features", e.getCause());
+        } finally {
+            pool.shutdown();
         }
-        return distanceMatrix;
     }
 
     /**
@@ -202,11 +587,11 @@ public class FeatureMatrix {
      * @param imageCount - The number of images (including the query image)
      *                     in the relevant set.
      * @param binSize    - The number of bins in each histogram.
-     * @return An array of {@code Double} values representing the calculated
+     * @return An array of {@code double} values representing the calculated
      *         feature weights. These weights determine the contribution of
      *         each feature to the distance calculation.
      */
-    private Double[] calculateFeatureWeight(final Double[][] matrix,
+    private double[] calculateFeatureWeight(final double[][] matrix,
                                             final int        imageCount,
                                             final int        binSize) {
         // Check if this is the first iteration of RF. If so, then all features will have the same weight.
@@ -220,9 +605,9 @@ public class FeatureMatrix {
 
     /**
      * Calculates the normalized feature matrix for the given intensity and
-     * color code matrices. For each image, the normalized feature matrix is
+     * color code histograms. For each image, the normalized feature matrix is
      * generated by concatenating the intensity and color code bin values,
-     * and then dividing each bin value by the image size. Subsequently, the
+     * which have already been divided by the image size. Subsequently, the
      * mean value and standard deviation for each bin are computed, and each
      * feature is normalized using the formula:
      *
@@ -233,37 +618,203 @@ public class FeatureMatrix {
      * <li> {@code σi} is the standard deviation for feature {@code i}
      * </ul>
      *
-     * @param intensity - 2D array containing the intensity histograms for a
-     *                    collection of images.
-     * @param colorCode - 2D array containing the color code histograms for a
-     *                    collection of images.
-     * @param imageSize - An array containing the size of each image,
-     *                    representing their resolution.
-     * @return A 2D {@code Double} array representing the normalized feature
-     *         matrix for the given histogram values for a set of images.
+     * <br>
+     * <br>
+     * The normalized values are written into the given feature store. The
+     * store is only ever walked row by row, which keeps the number of passes
+     * over a memory-mapped store to three regardless of the number of bins.
+     *
+     * @param intensity - The intensity histograms of a collection of images,
+     *                    divided by the size of each image.
+     * @param colorCode - The color code histograms of a collection of images,
+     *                    divided by the size of each image.
+     * @param store     - The feature store to write the normalized feature
+     *                    matrix into.
      */
-    private Double[][] calculateNormalizedMatrix(final Double[][] intensity,
-                                                 final Double[][] colorCode,
-                                                 final int[]      imageSize) {
-        final int binSize = intensity[0].length + colorCode[0].length;
-
-        // combine intensity and color-code matrix and normalize values
-        final var matrix = new Double[imageSize.length][binSize];
-        for (int i = 0; i < imageSize.length; i++) {
-            matrix[i] = Utility.concatenateArray(intensity[i], colorCode[i]);
-            for (int j = 0; j < binSize; j++) matrix[i][j] /= imageSize[i];
+    private static void calculateNormalizedMatrix(final FeatureStore intensity,
+                                                  final FeatureStore colorCode,
+                                                  final FeatureStore store) {
+        final var n       = store.getSize();
+        final var binSize = store.getStride();
+        final var offset  = intensity.getStride();
+        final var sum     = Stream.generate(DoubleSummaryStatistics::new).limit(binSize).toArray(DoubleSummaryStatistics[]::new);
+        final var ssd     = Stream.generate(DoubleSummaryStatistics::new).limit(binSize).toArray(DoubleSummaryStatistics[]::new);
+        final var mean    = new double[binSize];
+        final var stdev   = new double[binSize];
+
+        // combine intensity and color-code matrix
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < binSize; j++) {
+                final var value = (j < offset) ? intensity.get(i, j) : colorCode.get(i, j - offset);
+                store.set(i, j, value);
+                sum[j].accept(value);
+            }
         }
+        for (int j = 0; j < binSize; j++) mean[j] = sum[j].getSum() / n;
 
-        final var mean  = Histogram.calculateBinMean(matrix, binSize, imageSize.length);
-        final var stdev = Histogram.calculateBinStandardDeviation(matrix, mean, imageSize.length);
+        // the summary statistics sum with the same compensation as the column streams used by Histogram
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < binSize; j++) ssd[j].accept(Math.pow(store.get(i, j) - mean[j], 2));
+        for (int j = 0; j < binSize; j++) stdev[j] = Math.sqrt(ssd[j].getSum() / (n - 1));
 
         // normalize by apply the following formula: v = (v - μ) / σ
-        for (int i = 0; i < binSize; i++) {
-            for (int j = 0; j < imageSize.length; j++) {
-                matrix[j][i] -= mean[i];                     // x = (v - μ)
-                if (stdev[i] > 0) matrix[j][i] /= stdev[i];  // x / σ
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < binSize; j++) {
+                var value = store.get(i, j) - mean[j];    // x = (v - μ)
+                if (stdev[j] > 0) value /= stdev[j];      // x / σ
+                store.set(i, j, value);
+            }
+        }
+    }
+
+    /**
+     * Creates a feature store on the heap or, when a feature store path is
+     * set, in a new mapped file named by the path with the given suffix.
+     *
+     * @param path   - The feature store path, or {@code null} to create the
+     *                 store on the heap.
+     * @param suffix - Appended to the file name of the path.
+     * @param size   - The number of images to store features of.
+     * @param stride - The number of features stored for each image.
+     * @return The new, zero-filled feature store.
+     */
+    private static FeatureStore createStore(final Path   path,
+                                            final String suffix,
+                                            final int    size,
+                                            final int    stride) {
+        if (path == null) return new HeapFeatureStore(size, stride);
+        return MappedFeatureStore.create(path.resolveSibling(path.getFileName() + suffix), size, stride);
+    }
+
+    /**
+     * Stores the given histogram in the given row of the feature store, with
+     * each bin divided by the size of the image.
+     *
+     * @param store     - The feature store to write the histogram into.
+     * @param image     - The index of the image (row) to write.
+     * @param histogram - The bin counts of the histogram.
+     * @param size      - The number of pixels counted by the histogram.
+     */
+    private static void storeHistogram(final FeatureStore store,
+                                       final int          image,
+                                       final int[]        histogram,
+                                       final int          size) {
+        for (int i = 0; i < histogram.length; i++) store.set(image, i, (double) histogram[i] / size);
+    }
+
+    /**
+     * Creates the cache of query distances, which evicts its least recently
+     * used entry once it holds more than {@code capacity} entries.
+     *
+     * @param capacity - The maximum number of cached queries.
+     * @return An empty, access ordered map.
+     */
+    private static Map<QueryKey, double[]> createQueryCache(final int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<QueryKey, double[]> eldest) {
+                return size() > capacity;
             }
+        };
+    }
+
+    /**
+     * Identifies a cached query by its histogram type and query image.
+     */
+    private record QueryKey(HistogramType type, int image) {}
+
+    /**
+     * Options controlling how a {@code FeatureMatrix} computes and stores its
+     * matrices.
+     */
+    public static class Options {
+        private int                      parallelism      = DEFAULT_PARALLELISM;
+        private Path                     featureStore     = null;
+        private int                      queryCacheSize   = 8;
+        private double                   searchEpsilon    = 0.0;
+        private ProductQuantizer.Options quantizerOptions = new ProductQuantizer.Options();
+
+        public final int                      getParallelism()      { return parallelism;      }
+        public final int                      getQueryCacheSize()   { return queryCacheSize;   }
+        public final Path                     getFeatureStore()     { return featureStore;     }
+        public final double                   getSearchEpsilon()    { return searchEpsilon;    }
+        public final ProductQuantizer.Options getQuantizerOptions() { return quantizerOptions; }
+
+        /**
+         * Sets the maximum number of threads used to extract histograms. A
+         * value of {@code 1} processes the images sequentially on the
+         * calling thread.
+         *
+         * @param parallelism - The maximum number of extraction threads.
+         * @return This {@code Options} object.
+         */
+        public final Options parallelism(final int parallelism) {
+            if (parallelism < 1) throw new RuntimeException("FeatureMatrix: parallelism must be at least 1");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the path of a {@link MappedFeatureStore} file to keep the
+         * normalized feature matrix in, instead of on the heap. The intensity
+         * and color-code histograms are kept in two more files next to it,
+         * named by appending {@code INTENSITY_SUFFIX} and
+         * {@code COLOR_CODE_SUFFIX} to the path. The files are created, or
+         * replaced if they already exist.
+         *
+         * @param featureStore - The path of the feature store file, or
+         *                       {@code null} to keep the features on the heap.
+         * @return This {@code Options} object.
+         */
+        public final Options featureStore(final Path featureStore) {
+            this.featureStore = featureStore;
+            return this;
+        }
+
+        /**
+         * Sets the number of queries whose distances are kept for reuse by
+         * {@link FeatureMatrix#getDistances(HistogramType, int) getDistances}.
+         * Each cached query holds one {@code double} per image.
+         *
+         * @param queryCacheSize - The number of cached queries, {@code 0}
+         *                         disables the cache.
+         * @return This {@code Options} object.
+         */
+        public final Options queryCacheSize(final int queryCacheSize) {
+            if (queryCacheSize < 0) throw new RuntimeException("FeatureMatrix: query cache size can't be negative");
+            this.queryCacheSize = queryCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the allowed relative error of the nearest neighbour searches
+         * done by {@link FeatureMatrix#rank(HistogramType, int) rank}. With
+         * a positive epsilon, the k-th image returned is at most
+         * {@code 1 + epsilon} times farther than the true k-th nearest image,
+         * and fewer images are compared with the query.
+         *
+         * @param searchEpsilon - The allowed relative error, {@code 0.0} for
+         *                        exact searches.
+         * @return This {@code Options} object.
+         */
+        public final Options searchEpsilon(final double searchEpsilon) {
+            if (searchEpsilon < 0) throw new RuntimeException("FeatureMatrix: search epsilon can't be negative");
+            this.searchEpsilon = searchEpsilon;
+            return this;
+        }
+
+        /**
+         * Sets the options used to train the product quantizer over the
+         * normalized features, see
+         * {@link FeatureMatrix#rankRelevance(int, int[], boolean[]) rankRelevance}.
+         *
+         * @param quantizerOptions - The product quantizer options.
+         * @return This {@code Options} object.
+         */
+        public final Options quantizerOptions(final ProductQuantizer.Options quantizerOptions) {
+            if (quantizerOptions == null) throw new RuntimeException("FeatureMatrix: quantizer options can't be null");
+            this.quantizerOptions = quantizerOptions;
+            return this;
         }
-        return matrix;
     }
 }
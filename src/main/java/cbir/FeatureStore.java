@@ -0,0 +1,113 @@
+package cbir;
+
+/**
+ * A fixed-stride table of feature values holding one row of {@code stride}
+ * values for each image. Implementations store the values in primitive form,
+ * so rows can be scanned without materializing any per-value objects.
+ */
+public interface FeatureStore {
+    /**
+     * @return The number of images (rows) in this store.
+     */
+    int getSize();
+
+    /**
+     * @return The number of features (columns) stored for each image.
+     */
+    int getStride();
+
+    /**
+     * Returns a single feature value.
+     *
+     * @param image   - The index of the image (row).
+     * @param feature - The index of the feature (column).
+     * @return The value of the given feature of the given image.
+     */
+    double get(int image, int feature);
+
+    /**
+     * Sets a single feature value.
+     *
+     * @param image   - The index of the image (row).
+     * @param feature - The index of the feature (column).
+     * @param value   - The new value of the feature.
+     */
+    void set(int image, int feature, double value);
+
+    /**
+     * Copies the features of the given image into the given array.
+     *
+     * @param image       - The index of the image (row) to copy.
+     * @param destination - Array of at least {@code getStride()} values to
+     *                      copy the features into.
+     */
+    default void copyRow(final int image, final double[] destination) {
+        for (int i = 0; i < getStride(); i++) destination[i] = get(image, i);
+    }
+
+    /**
+     * Calculates the Manhattan distance between the features of the given
+     * image and the given query features: {@code Σ | V_image(i) - q(i) |}.
+     *
+     * @param image - The index of the image.
+     * @param query - The features to compare the image's features with.
+     * @return The distance between the image and the query.
+     */
+    default double distance(final int image, final double[] query) {
+        var distance = 0.0;
+        for (int i = 0; i < getStride(); i++) distance += Math.abs(get(image, i) - query[i]);
+        return distance;
+    }
+
+    /**
+     * Calculates the Manhattan distance between the features of the given
+     * image and the given query features, like
+     * {@link #distance(int, double[]) distance}, but may abandon the
+     * calculation once the distance is known to exceed {@code limit}.
+     *
+     * @param image - The index of the image.
+     * @param query - The features to compare the image's features with.
+     * @param limit - The distance beyond which the calculation may be
+     *                abandoned.
+     * @return The distance between the image and the query if it is at most
+     *         {@code limit}, otherwise some value greater than {@code limit}.
+     */
+    default double distance(final int image, final double[] query, final double limit) {
+        return distance(image, query, limit, null);
+    }
+
+    /**
+     * Calculates the early-abandoning Manhattan distance like
+     * {@link #distance(int, double[], double) distance}, and reports how many
+     * features were read before the calculation finished or was abandoned.
+     *
+     * @param image - The index of the image.
+     * @param query - The features to compare the image's features with.
+     * @param limit - The distance beyond which the calculation may be
+     *                abandoned.
+     * @param read  - Array whose first element is set to the number of
+     *                features read, or {@code null}.
+     * @return The distance between the image and the query if it is at most
+     *         {@code limit}, otherwise some value greater than {@code limit}.
+     */
+    default double distance(final int image, final double[] query, final double limit, final int[] read) {
+        if (read != null) read[0] = getStride();
+        return distance(image, query);
+    }
+
+    /**
+     * Calculates the weighted Manhattan distance between the features of the
+     * given image and the given query features:
+     * {@code Σ w(i) * | V_image(i) - q(i) |}.
+     *
+     * @param image  - The index of the image.
+     * @param query  - The features to compare the image's features with.
+     * @param weight - Weight assigned to each feature.
+     * @return The weighted distance between the image and the query.
+     */
+    default double weightedDistance(final int image, final double[] query, final double[] weight) {
+        var distance = 0.0;
+        for (int i = 0; i < getStride(); i++) distance += weight[i] * Math.abs(get(image, i) - query[i]);
+        return distance;
+    }
+}
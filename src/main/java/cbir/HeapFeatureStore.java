@@ -0,0 +1,69 @@
+package cbir;
+
+/**
+ * A {@link FeatureStore} backed by a single contiguous {@code double} array on
+ * the Java heap, laid out row after row. Distances are calculated by a
+ * {@link DistanceKernel}, the one selected by the {@code cbir.kernel} system
+ * property unless another is given.
+ */
+public class HeapFeatureStore implements FeatureStore {
+    private final double[]       values; // feature values, stored row-major
+    private final int            size;   // number of images
+    private final int            stride; // number of features per image
+    private final DistanceKernel kernel; // kernel used to compare rows with a query
+
+    public HeapFeatureStore(final int size, final int stride) {
+        this(size, stride, DistanceKernel.DEFAULT);
+    }
+
+    /**
+     * Creates an empty store that compares its rows with queries using the
+     * given kernel.
+     *
+     * @param size   - The number of images (rows) in the store.
+     * @param stride - The number of features (columns) stored for each image.
+     * @param kernel - The kernel used to calculate distances.
+     */
+    public HeapFeatureStore(final int size, final int stride, final DistanceKernel kernel) {
+        if (size < 0 || stride < 1)                  throw new RuntimeException("HeapFeatureStore: invalid dimensions");
+        if ((long) size * stride > Integer.MAX_VALUE) throw new RuntimeException("HeapFeatureStore: too many features for the heap");
+
+        this.values = new double[size * stride];
+        this.size   = size;
+        this.stride = stride;
+        this.kernel = kernel;
+    }
+
+    @Override public final int getSize()   { return size;   }
+    @Override public final int getStride() { return stride; }
+
+    @Override
+    public final double get(final int image, final int feature) {
+        return values[image * stride + feature];
+    }
+
+    @Override
+    public final void set(final int image, final int feature, final double value) {
+        values[image * stride + feature] = value;
+    }
+
+    @Override
+    public final void copyRow(final int image, final double[] destination) {
+        System.arraycopy(values, image * stride, destination, 0, stride);
+    }
+
+    @Override
+    public final double distance(final int image, final double[] query) {
+        return kernel.distance(values, image * stride, query, stride);
+    }
+
+    @Override
+    public final double distance(final int image, final double[] query, final double limit, final int[] read) {
+        return kernel.distance(values, image * stride, query, stride, limit, read);
+    }
+
+    @Override
+    public final double weightedDistance(final int image, final double[] query, final double[] weight) {
+        return kernel.weightedDistance(values, image * stride, query, weight, stride);
+    }
+}
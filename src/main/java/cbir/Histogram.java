@@ -1,9 +1,11 @@
 package cbir;
 
-import java.util.List;
 import java.util.stream.IntStream;
 
 public class Histogram {
+    public static final int INTENSITY_BINS  = 25;
+    public static final int COLOR_CODE_BINS = 64;
+
     private static final double RED_INTENSITY   = 0.299;
     private static final double GREEN_INTENSITY = 0.587;
     private static final double BLUE_INTENSITY  = 0.114;
@@ -50,12 +52,14 @@ public class Histogram {
      * @return A double representing the total distance between the two images
      *         represented by the histograms {@code h1} and {@code h2}.
      */
-    public static double calculateDistance(final Double[] h1,
-                                           final Double[] h2,
+    public static double calculateDistance(final double[] h1,
+                                           final double[] h2,
                                            final int      s1,
                                            final int      s2,
                                            final int      sB) {
-        return IntStream.range(0, sB).mapToDouble(i -> Math.abs((h1[i] / s1) - (h2[i] / s2))).sum();
+        var distance = 0.0;
+        for (int i = 0; i < sB; i++) distance += Math.abs((h1[i] / s1) - (h2[i] / s2));
+        return distance;
     }
 
     /**
@@ -99,11 +103,11 @@ public class Histogram {
      *         images represented by the histograms {@code h1} and {@code h2},
      *         considering the assigned weights in {@code w}.
      */
-    public static double calculateWeightedDistance(final Double[] h1,
-                                                   final Double[] h2,
-                                                   final Double[] w,
+    public static double calculateWeightedDistance(final double[] h1,
+                                                   final double[] h2,
+                                                   final double[] w,
                                                    final int      sB) {
-        return IntStream.range(0, sB).mapToDouble(i -> w[i] * Math.abs(h1[i] - h2[i])).sum();
+        return DistanceKernel.DEFAULT.weightedDistance(h1, 0, h2, w, sB);
     }
 
     /**
@@ -115,11 +119,11 @@ public class Histogram {
      * @param matrix  - A matrix containing the histograms of multiple images.
      * @param binSize - The number of bins in each histogram.
      * @param n       - The number of images to get mean of.
-     * @return An array of {@code Double} values representing the mean values
+     * @return An array of {@code double} values representing the mean values
      *         of bins across all images in the histogram matrix from {@code 0}
      *         to {@code n}.
      */
-    public static Double[] calculateBinMean(final Double[][] matrix,
+    public static double[] calculateBinMean(final double[][] matrix,
                                             final int        binSize,
                                             final int        n) {
         final var binMean = Utility.doubleArray(binSize, 0);
@@ -137,12 +141,12 @@ public class Histogram {
      * @param matrix  - A matrix containing the histograms of multiple images.
      * @param mean    - The mean value of each bin in the given matrix.
      * @param n       - The number of images to get standard deviations of.
-     * @return An array of {@code Double} values representing the standard
+     * @return An array of {@code double} values representing the standard
      *         deviations of bins across all images in the histogram matrix
      *         from {@code 0} to {@code n}.
      */
-    public static Double[] calculateBinStandardDeviation(final Double[][] matrix,
-                                                         final Double[]   mean,
+    public static double[] calculateBinStandardDeviation(final double[][] matrix,
+                                                         final double[]   mean,
                                                          final int        n) {
         final var standardDeviation = Utility.doubleArray(mean.length, 0);
         IntStream.range(0, standardDeviation.length).forEach(i -> {
@@ -182,11 +186,11 @@ public class Histogram {
      * @param mean  - An array that holds the mean value of each feature for a
      *                given matrix of histogram values.
      * @param n     - The number of images to get normalized feature weights of.
-     * @return An array of {@code Double} values that represent the normalized
+     * @return An array of {@code double} values that represent the normalized
      *         feature weights for a given matrix of histogram values.
      */
-    public static Double[] calculateNormalizedFeatureWeight(final Double[] stdev,
-                                                            final Double[] mean,
+    public static double[] calculateNormalizedFeatureWeight(final double[] stdev,
+                                                            final double[] mean,
                                                             final int      n) {
         final var minstdev = 2 / Utility.minNonZeroValue(stdev);
         final var weight   = Utility.doubleArray(n, 0);
@@ -203,6 +207,37 @@ public class Histogram {
         return weight;
     }
 
+    /**
+     * Generates both the intensity and the color-code histogram for the given
+     * image in a single pass over its pixels. Each pixel is unpacked once and
+     * counted into the two primitive histograms, which halves the memory
+     * traffic compared to calling {@link #intensityHistogram(int[])} and
+     * {@link #colorCodeHistogram(int[])} one after the other. The bins are
+     * defined exactly as they are by those two methods.
+     *
+     * @param colors - An array of integer values representing the rgb value of
+     *                 each pixel in some image.
+     * @return An {@code ImageFeatures} object holding the intensity histogram,
+     *         the color-code histogram and the number of pixels counted.
+     */
+    public static ImageFeatures extractFeatures(final int[] colors) {
+        final var start     = PipelineMetrics.GLOBAL.start();
+        final var intensity = new int[INTENSITY_BINS];
+        final var colorCode = new int[COLOR_CODE_BINS];
+        for (final var value : colors) {
+            final var red   = (value >> 16) & 0xFF;
+            final var green = (value >>  8) & 0xFF;
+            final var blue  = value & 0xFF;
+
+            final var level = Math.min(240, (int) (RED_INTENSITY * red + GREEN_INTENSITY * green + BLUE_INTENSITY * blue));
+            intensity[level / 10]++;
+            colorCode[((red >> 6) << 4) | ((green >> 6) << 2) | (blue >> 6)]++;
+        }
+
+        PipelineMetrics.GLOBAL.record(PipelineMetrics.Stage.EXTRACT, start);
+        return new ImageFeatures(intensity, colorCode, colors.length);
+    }
+
     /**
      * Generates an intensity histogram for the given image. To generate the
      * intensity values of each color, the 24-bit RGB value is transformed into
@@ -228,12 +263,12 @@ public class Histogram {
      * Do keep in mind, each bin encompasses a range of 10 intensity values.
      * However, the final bin encompasses 15 intensity values in total.
      *
-     * @param colors - A list of integer values representing the rgb value of
+     * @param colors - An array of integer values representing the rgb value of
      *                 each pixel in some image.
-     * @return An array of Double values representing the intensity histogram.
+     * @return An array of double values representing the intensity histogram.
      */
-    public static Double[] intensityHistogram(final List<Integer> colors) {
-        final var histogram = Utility.doubleArray(25, 0);
+    public static double[] intensityHistogram(final int[] colors) {
+        final var histogram = new int[INTENSITY_BINS];
         for (final var value : colors) {
             final var red       = RED_INTENSITY   * ((value >> 16) & 0xFF);
             final var green     = GREEN_INTENSITY * ((value >>  8) & 0xFF);
@@ -241,7 +276,7 @@ public class Histogram {
             final var intensity = Math.min(240, (int) (red + green + blue));
             histogram[intensity / 10]++;
         }
-        return histogram;
+        return Utility.toDoubleArray(histogram);
     }
 
     /**
@@ -269,13 +304,13 @@ public class Histogram {
      * Each bin in the histogram represents a unique combination of color codes
      * for the red, green, and blue components of the pixel.
      *
-     * @param colors - A list of integer values representing the rgb value of
+     * @param colors - An array of integer values representing the rgb value of
      *                 each pixel in some image.
-     * @return An array of {@code Double} values representing the color code
+     * @return An array of {@code double} values representing the color code
      *         histogram.
      */
-    public static Double[] colorCodeHistogram(final List<Integer> colors) {
-        final var histogram = Utility.doubleArray(64, 0);
+    public static double[] colorCodeHistogram(final int[] colors) {
+        final var histogram = new int[COLOR_CODE_BINS];
         for (final var value : colors) {
             final var red   = ((value >> 16) & 0xFF) >> 6;
             final var green = ((value >>  8) & 0xFF) >> 6;
@@ -283,6 +318,6 @@ public class Histogram {
             final var code  = (red << 4) | (green << 2) | blue;
             histogram[code]++;
         }
-        return histogram;
+        return Utility.toDoubleArray(histogram);
     }
 }
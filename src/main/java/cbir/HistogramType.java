@@ -0,0 +1,18 @@
+package cbir;
+
+/**
+ * The kinds of histogram extracted from each image, together with the number
+ * of bins each kind of histogram has.
+ */
+public enum HistogramType {
+    INTENSITY(Histogram.INTENSITY_BINS),
+    COLOR_CODE(Histogram.COLOR_CODE_BINS);
+
+    private final int bins; // number of bins in this kind of histogram
+
+    HistogramType(final int bins) {
+        this.bins = bins;
+    }
+
+    public final int getBins() { return bins; }
+}
@@ -0,0 +1,20 @@
+package cbir;
+
+public class ImageFeatures {
+    private final int[] intensity;  // intensity histogram bin counts
+    private final int[] colorCode;  // color-code histogram bin counts
+    private final int   pixelCount; // number of pixels the histograms were built from
+
+    ImageFeatures(final int[] intensity, final int[] colorCode, final int pixelCount) {
+        if (intensity.length != Histogram.INTENSITY_BINS)  throw new RuntimeException("ImageFeatures: invalid intensity histogram size");
+        if (colorCode.length != Histogram.COLOR_CODE_BINS) throw new RuntimeException("ImageFeatures: invalid color-code histogram size");
+
+        this.intensity  = intensity;
+        this.colorCode  = colorCode;
+        this.pixelCount = pixelCount;
+    }
+
+    public final int[] getIntensity()  { return intensity;  }
+    public final int[] getColorCode()  { return colorCode;  }
+    public final int   getPixelCount() { return pixelCount; }
+}
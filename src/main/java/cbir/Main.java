@@ -1,9 +1,17 @@
 package cbir;
 
+import java.awt.GraphicsEnvironment;
 import javax.swing.SwingUtilities;
 
 public class Main {
     public static void main(String[] args) {
+        PipelineMetrics.register();
+
+        // commands, or a machine without a display, run headless
+        if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+            System.exit(Cli.run(args));
+        }
+
         SwingUtilities.invokeLater(() -> {
             final var app = new AppGui();
             app.setVisible(true);
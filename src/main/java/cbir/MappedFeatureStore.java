@@ -0,0 +1,160 @@
+package cbir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link FeatureStore} backed by a memory-mapped file, so collections whose
+ * features don't fit on the Java heap can still be scanned at memory speed.
+ * The operating system pages rows in and out of memory as they are accessed.
+ *
+ * <br>
+ * <br>
+ * The file starts with a 16 byte header (magic number, version, number of
+ * images and stride), followed by {@code size * stride} little-endian doubles
+ * stored row after row. Since a single mapping can't exceed 2GB, the file is
+ * mapped as a sequence of segments, each holding a whole number of rows.
+ */
+public class MappedFeatureStore implements FeatureStore {
+    private static final int  MAGIC       = 0x43424946; // "CBIF"
+    private static final int  VERSION     = 1;
+    private static final int  HEADER_SIZE = 16;
+    private static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
+    private final MappedByteBuffer[] mappings;       // mapped segments, kept to flush changes
+    private final DoubleBuffer[]     segments;       // double views of the mapped segments
+    private final int                size;           // number of images
+    private final int                stride;         // number of features per image
+    private final int                rowsPerSegment; // number of rows held by each segment
+
+    private MappedFeatureStore(final FileChannel channel,
+                               final FileChannel.MapMode mode,
+                               final int size,
+                               final int stride) throws IOException {
+        final var rowBytes = (long) stride * Double.BYTES;
+
+        this.size           = size;
+        this.stride         = stride;
+        this.rowsPerSegment = (int) Math.max(1, MAX_SEGMENT / rowBytes);
+
+        final var count = (size + rowsPerSegment - 1) / rowsPerSegment;
+        this.mappings = new MappedByteBuffer[count];
+        this.segments = new DoubleBuffer[count];
+        for (int i = 0; i < count; i++) {
+            final var rows   = Math.min(rowsPerSegment, size - i * rowsPerSegment);
+            final var offset = HEADER_SIZE + i * rowsPerSegment * rowBytes;
+            mappings[i] = channel.map(mode, offset, rows * rowBytes);
+            segments[i] = mappings[i].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+    }
+
+    /**
+     * Creates a new, zero-filled feature store file at the given path,
+     * replacing any existing file, and maps it for reading and writing.
+     *
+     * @param path   - The path of the feature store file to create.
+     * @param size   - The number of images to store features of.
+     * @param stride - The number of features stored for each image.
+     * @return The writable feature store.
+     */
+    public static MappedFeatureStore create(final Path path, final int size, final int stride) {
+        if (size < 0 || stride < 1) throw new RuntimeException("MappedFeatureStore: invalid dimensions");
+
+        final var options = new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                     StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (final var channel = FileChannel.open(path, options)) {
+            final var header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).putInt(size).putInt(stride);
+            header.force();
+            return new MappedFeatureStore(channel, FileChannel.MapMode.READ_WRITE, size, stride);
+        } catch (IOException e) {
+            throw new RuntimeException("MappedFeatureStore: failed to create " + path, e);
+        }
+    }
+
+    /**
+     * Maps an existing feature store file for reading. Calling
+     * {@link #set(int, int, double) set} on the returned store throws.
+     *
+     * @param path - The path of the feature store file to open.
+     * @return The read-only feature store.
+     */
+    public static MappedFeatureStore open(final Path path) {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)   throw new RuntimeException("MappedFeatureStore: " + path + " is not a feature store");
+            if (header.getInt() != VERSION) throw new RuntimeException("MappedFeatureStore: unsupported version of " + path);
+
+            final var size   = header.getInt();
+            final var stride = header.getInt();
+            if (channel.size() < HEADER_SIZE + (long) size * stride * Double.BYTES)
+                throw new RuntimeException("MappedFeatureStore: " + path + " is truncated");
+
+            return new MappedFeatureStore(channel, FileChannel.MapMode.READ_ONLY, size, stride);
+        } catch (IOException e) {
+            throw new RuntimeException("MappedFeatureStore: failed to open " + path, e);
+        }
+    }
+
+    @Override public final int getSize()   { return size;   }
+    @Override public final int getStride() { return stride; }
+
+    @Override
+    public final double get(final int image, final int feature) {
+        return segments[image / rowsPerSegment].get((image % rowsPerSegment) * stride + feature);
+    }
+
+    @Override
+    public final void set(final int image, final int feature, final double value) {
+        segments[image / rowsPerSegment].put((image % rowsPerSegment) * stride + feature, value);
+    }
+
+    @Override
+    public final void copyRow(final int image, final double[] destination) {
+        segments[image / rowsPerSegment].get((image % rowsPerSegment) * stride, destination, 0, stride);
+    }
+
+    @Override
+    public final double distance(final int image, final double[] query) {
+        final var segment = segments[image / rowsPerSegment];
+        final var row     = (image % rowsPerSegment) * stride;
+
+        var distance = 0.0;
+        for (int i = 0; i < stride; i++) distance += Math.abs(segment.get(row + i) - query[i]);
+        return distance;
+    }
+
+    @Override
+    public final double distance(final int image, final double[] query, final double limit, final int[] read) {
+        final var segment = segments[image / rowsPerSegment];
+        final var row     = (image % rowsPerSegment) * stride;
+
+        var distance = 0.0;
+        var i        = 0;
+        for (; i < stride && distance <= limit; i++) distance += Math.abs(segment.get(row + i) - query[i]);
+        if (read != null) read[0] = i;
+        return distance;
+    }
+
+    @Override
+    public final double weightedDistance(final int image, final double[] query, final double[] weight) {
+        final var segment = segments[image / rowsPerSegment];
+        final var row     = (image % rowsPerSegment) * stride;
+
+        var distance = 0.0;
+        for (int i = 0; i < stride; i++) distance += weight[i] * Math.abs(segment.get(row + i) - query[i]);
+        return distance;
+    }
+
+    /**
+     * Writes any changes made to this store back to its file.
+     */
+    public final void force() {
+        for (final var mapping : mappings) mapping.force();
+    }
+}
@@ -0,0 +1,136 @@
+package cbir;
+
+import java.util.Arrays;
+
+/**
+ * The {@code capacity} nearest images found so far by a search, kept in a
+ * bounded max-heap ordered by distance and then by a tie-breaking key, which
+ * is the index of the image unless another key is given. Adding {@code n}
+ * images takes {@code O(n log capacity)} time.
+ */
+final class Neighbours {
+    private final int      capacity;  // number of images to find
+    private final int[]    images;    // images found, in heap order with the farthest first
+    private final double[] distances; // distance of each image in images
+    private final int[]    keys;      // tie-breaking key of each image in images
+    private int            size;      // number of images found
+
+    Neighbours(final int capacity) {
+        this.capacity  = capacity;
+        this.images    = new int[capacity];
+        this.distances = new double[capacity];
+        this.keys      = new int[capacity];
+    }
+
+    int getCapacity() { return capacity; }
+
+    /**
+     * @return {@code true} if {@code capacity} images have been found.
+     */
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the distance an image must beat to be among the nearest
+     * images, scaled by the given factor.
+     *
+     * @param scale - The factor to scale the distance by.
+     * @return The scaled distance of the farthest image found, or infinity
+     *         while fewer than {@code capacity} images have been found.
+     */
+    double bound(final double scale) {
+        return (size < capacity) ? Double.POSITIVE_INFINITY : distances[0] * scale;
+    }
+
+    /**
+     * Adds the given image if it is nearer than the farthest image found.
+     * Images at the same distance are ordered by index.
+     *
+     * @param image    - The index of the image.
+     * @param distance - The distance of the image from the query.
+     */
+    void offer(final int image, final double distance) {
+        offer(image, distance, image);
+    }
+
+    /**
+     * Adds the given image if it is nearer than the farthest image found.
+     * Images at the same distance are ordered by ascending key.
+     *
+     * @param image    - The index of the image.
+     * @param distance - The distance of the image from the query.
+     * @param key      - The tie-breaking key of the image. Must be unique for
+     *                   each image offered.
+     */
+    void offer(final int image, final double distance, final int key) {
+        if (size < capacity) {
+            images[size]    = image;
+            distances[size] = distance;
+            keys[size]      = key;
+            siftUp(size++);
+        } else if (size > 0 && isFarther(keys[0], distances[0], key, distance)) {
+            images[0]    = image;
+            distances[0] = distance;
+            keys[0]      = key;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Sorts the images found nearest first. The heap can't be used after
+     * calling this method.
+     *
+     * @return The indices of the images found, nearest first.
+     */
+    int[] sorted() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        return Arrays.copyOf(images, size);
+    }
+
+    // compares by the sign of the difference, like FeatureMatrix.compare, so distances that can't be ordered tie
+    private static boolean isFarther(final int keyA, final double distanceA, final int keyB, final double distanceB) {
+        final var difference = distanceA - distanceB;
+        if (difference > 0) return true;
+        if (difference < 0) return false;
+        return keyA > keyB;
+    }
+
+    private boolean isFarther(final int a, final int b) {
+        return isFarther(keys[a], distances[a], keys[b], distances[b]);
+    }
+
+    private void siftUp(int child) {
+        while (child > 0) {
+            final var parent = (child - 1) / 2;
+            if (!isFarther(child, parent)) break;
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int parent, final int end) {
+        while (2 * parent + 1 < end) {
+            var child = 2 * parent + 1;
+            if (child + 1 < end && isFarther(child + 1, child)) child++;
+            if (!isFarther(child, parent)) break;
+            swap(child, parent);
+            parent = child;
+        }
+    }
+
+    private void swap(final int a, final int b) {
+        final var image    = images[a];
+        final var distance = distances[a];
+        final var key      = keys[a];
+        images[a]    = images[b];
+        distances[a] = distances[b];
+        keys[a]      = keys[b];
+        images[b]    = image;
+        distances[b] = distance;
+        keys[b]      = key;
+    }
+}
@@ -0,0 +1,164 @@
+package cbir;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events emitted by the image pipeline, so that a
+ * recording shows which image, or which query, a latency spike came from.
+ * The events are disabled unless a recording enables them, for example:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=cbir.jfr cbir.Main ...
+ * jfr print --events cbir.Rank cbir.jfr
+ * </pre>
+ *
+ * <br>
+ * <br>
+ * Each event is created and begun before the work it measures, and its
+ * fields are only filled in if the recording will keep it, so the events
+ * cost next to nothing while no recording is running.
+ */
+public final class PipelineEvents {
+    private PipelineEvents() {
+        throw new RuntimeException("Error: can't instantiate PipelineEvents class");
+    }
+
+    /**
+     * Decoding one image file or stream, while loading a collection or a
+     * query image.
+     */
+    @Name("cbir.Decode")
+    @Label("Image Decode")
+    @Category({"CBIR", "Loading"})
+    @Description("Decoding one image with ImageIO")
+    @StackTrace(false)
+    public static final class Decode extends Event {
+        @Label("Path")
+        @Description("The decoded file, or 'stream' for an image read from a stream")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Subsampling")
+        int subsampling;
+
+        /**
+         * Ends the event and commits it, if the recording keeps it.
+         *
+         * @param path        - The decoded file, or {@code stream}.
+         * @param bytes       - The number of encoded bytes read.
+         * @param width       - The width of the decoded image.
+         * @param height      - The height of the decoded image.
+         * @param subsampling - The source subsampling factor.
+         */
+        void finish(final String path, final long bytes, final int width, final int height, final int subsampling) {
+            end();
+            if (!shouldCommit()) return;
+            this.path        = path;
+            this.bytes       = bytes;
+            this.width       = width;
+            this.height      = height;
+            this.subsampling = subsampling;
+            commit();
+        }
+    }
+
+    /**
+     * Extracting the histograms of one image from its pixels, while loading
+     * a collection, building a feature matrix or reading a query image.
+     * Histograms read from a feature index aren't extracted, so they have no
+     * event.
+     */
+    @Name("cbir.Extract")
+    @Label("Histogram Extraction")
+    @Category({"CBIR", "Loading"})
+    @Description("Extracting the histograms of one image from its pixels")
+    @StackTrace(false)
+    public static final class Extract extends Event {
+        @Label("Image")
+        @Description("The name of the image, or 'stream' for an image read from a stream")
+        String image;
+
+        @Label("Index")
+        @Description("The index of the image in its collection, or -1 while loading or for a query image")
+        int index;
+
+        @Label("Pixel Count")
+        int pixelCount;
+
+        /**
+         * Ends the event and commits it, if the recording keeps it.
+         *
+         * @param image      - The name of the image, or {@code stream}.
+         * @param index      - The index of the image in its collection, or
+         *                     {@code -1} if it isn't in one yet.
+         * @param pixelCount - The number of pixels of the image.
+         */
+        void finish(final String image, final int index, final int pixelCount) {
+            end();
+            if (!shouldCommit()) return;
+            this.image      = image;
+            this.index      = index;
+            this.pixelCount = pixelCount;
+            commit();
+        }
+    }
+
+    /**
+     * Answering one query: a scan, a search of an index, or a relevance
+     * feedback iteration.
+     */
+    @Name("cbir.Rank")
+    @Label("Query Ranking")
+    @Category({"CBIR", "Query"})
+    @Description("Finding the images nearest to one query")
+    public static final class Rank extends Event {
+        @Label("Kind")
+        @Description("The search method, or RELEVANCE or RELEVANCE_PQ for a relevance feedback iteration")
+        String kind;
+
+        @Label("Images")
+        @Description("The number of images searched")
+        int size;
+
+        @Label("Requested")
+        @Description("The number of nearest images requested")
+        int k;
+
+        @Label("Relevant")
+        @Description("The number of images marked relevant, besides the query")
+        int relevant;
+
+        /**
+         * Ends the event and commits it, if the recording keeps it.
+         *
+         * @param kind     - The kind of query, such as the search method.
+         * @param size     - The number of images searched.
+         * @param k        - The number of nearest images requested.
+         * @param relevant - The number of images marked relevant.
+         */
+        void finish(final String kind, final int size, final int k, final int relevant) {
+            end();
+            if (!shouldCommit()) return;
+            this.kind     = kind;
+            this.size     = size;
+            this.k        = k;
+            this.relevant = relevant;
+            commit();
+        }
+    }
+}
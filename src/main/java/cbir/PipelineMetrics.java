@@ -0,0 +1,357 @@
+package cbir;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records where the time of the image pipeline goes: the wall time and
+ * allocations of each {@link Stage}, the images processed and bytes decoded,
+ * and the latency distribution of each kind of query. The counters are
+ * cumulative since the program started or they were last reset, and may be
+ * updated by concurrent threads.
+ *
+ * <br>
+ * <br>
+ * The pipeline records into {@link #GLOBAL}, which {@link #register()}
+ * exposes over JMX. Stages are measured as:
+ *
+ * <pre>
+ * final var start = PipelineMetrics.GLOBAL.start();
+ * ...
+ * PipelineMetrics.GLOBAL.record(Stage.DECODE, start);
+ * </pre>
+ *
+ * <br>
+ * <br>
+ * Allocations are estimated from the bytes the measuring thread allocated
+ * during the stage, where the JVM supports counting them. Work a stage hands
+ * to other threads isn't counted.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+    public static final String          OBJECT_NAME = "cbir:type=PipelineMetrics";
+    public static final PipelineMetrics GLOBAL      = new PipelineMetrics();
+
+    private static final Sample DISABLED = new Sample(0, 0); // returned by start() while disabled
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final Map<Stage, StageCounters>     stages;  // timings of each stage
+    private final Map<String, LatencyHistogram> queries; // latency of each kind of query
+    private final LongAdder                     images;  // images added to collections
+    private final LongAdder                     bytes;   // encoded bytes read by decodes
+    private volatile boolean                    enabled; // whether anything is recorded
+
+    public PipelineMetrics() {
+        this.stages  = new EnumMap<>(Stage.class);
+        this.queries = new ConcurrentHashMap<>();
+        this.images  = new LongAdder();
+        this.bytes   = new LongAdder();
+        this.enabled = true;
+        for (final var stage : Stage.values()) stages.put(stage, new StageCounters());
+    }
+
+    /**
+     * Registers {@link #GLOBAL} with the platform MBean server under
+     * {@value #OBJECT_NAME}. Registering again has no effect.
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // already registered
+        } catch (JMException e) {
+            throw new RuntimeException("PipelineMetrics: failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override public final boolean isEnabled()          { return enabled;     }
+    @Override public final long    getImagesProcessed() { return images.sum(); }
+    @Override public final long    getBytesDecoded()    { return bytes.sum();  }
+
+    @Override
+    public final void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public final long getQueries() {
+        return stages.get(Stage.RANK).count.sum();
+    }
+
+    /**
+     * Returns the timings of the given stage.
+     *
+     * @param stage - The stage of the pipeline.
+     * @return A snapshot of the stage's counters.
+     */
+    public final StageSnapshot getStage(final Stage stage) {
+        final var counters = stages.get(stage);
+        return new StageSnapshot(stage.name(), counters.count.sum(), counters.nanos.sum(), counters.max.get(), counters.allocated.sum());
+    }
+
+    @Override
+    public final Map<String, StageSnapshot> getStages() {
+        final var snapshots = new LinkedHashMap<String, StageSnapshot>();
+        for (final var stage : Stage.values()) snapshots.put(stage.name(), getStage(stage));
+        return snapshots;
+    }
+
+    @Override
+    public final Map<String, LatencySnapshot> getQueryLatencies() {
+        final var snapshots = new TreeMap<String, LatencySnapshot>();
+        queries.forEach((kind, histogram) -> snapshots.put(kind, histogram.snapshot(kind)));
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        for (final var counters : stages.values()) counters.reset();
+        queries.clear();
+        images.reset();
+        bytes.reset();
+    }
+
+    /**
+     * Starts measuring a stage on the calling thread.
+     *
+     * @return The starting point, to pass to {@link #record(Stage, Sample)
+     *         record} once the stage is done.
+     */
+    public final Sample start() {
+        if (!enabled) return DISABLED;
+        return new Sample(System.nanoTime(), allocatedBytes());
+    }
+
+    /**
+     * Records one run of a stage, measured since the given starting point
+     * on the calling thread.
+     *
+     * @param stage - The stage that ran.
+     * @param start - The starting point returned by {@link #start()}.
+     */
+    public final void record(final Stage stage, final Sample start) {
+        if (start == DISABLED) return;
+        stages.get(stage).add(System.nanoTime() - start.nanos(), allocatedBytes() - start.allocated());
+    }
+
+    /**
+     * Records one query, both as a run of the {@link Stage#RANK RANK} stage
+     * and in the latency distribution of its kind.
+     *
+     * @param kind  - The kind of query, such as the search method used.
+     * @param start - The starting point returned by {@link #start()}.
+     */
+    public final void recordQuery(final String kind, final Sample start) {
+        if (start == DISABLED) return;
+
+        final var nanos = System.nanoTime() - start.nanos();
+        stages.get(Stage.RANK).add(nanos, allocatedBytes() - start.allocated());
+        queries.computeIfAbsent(kind, k -> new LatencyHistogram()).add(nanos);
+    }
+
+    /**
+     * Counts one image added to a collection.
+     */
+    final void countImage() {
+        if (enabled) images.increment();
+    }
+
+    /**
+     * Counts the encoded bytes read by a decode.
+     *
+     * @param count - The number of bytes read.
+     */
+    final void countBytes(final long count) {
+        if (enabled && count > 0) bytes.add(count);
+    }
+
+    @Override
+    public String toString() {
+        final var text = new StringBuilder();
+        text.append(String.format("images=%d bytesDecoded=%d queries=%d%n", getImagesProcessed(), getBytesDecoded(), getQueries()));
+        for (final var stage : getStages().values()) if (stage.getCount() > 0) text.append(stage).append(System.lineSeparator());
+        for (final var query : getQueryLatencies().values()) text.append(query).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    // bytes allocated by the calling thread so far, or 0 if the JVM doesn't count them
+    private static long allocatedBytes() {
+        return (THREADS == null) ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads &&
+                threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) return threads;
+        } catch (LinkageError | RuntimeException ignored) {
+            // not a HotSpot-compatible runtime
+        }
+        return null;
+    }
+
+    /**
+     * The stages of the image pipeline.
+     */
+    public enum Stage {
+        LOAD,      // loading a whole collection, including every stage below it
+        DECODE,    // decoding one image file or stream
+        PIXELS,    // reading the packed pixels of one decoded image
+        EXTRACT,   // building the histograms of one image from its pixels
+        MATRIX,    // filling the histogram matrices of a feature matrix
+        NORMALIZE, // normalizing the features of a feature matrix
+        RANK       // answering one query, see recordQuery
+    }
+
+    /**
+     * The starting point of a measured stage.
+     *
+     * @param nanos     - The value of {@link System#nanoTime()} at the start.
+     * @param allocated - The bytes allocated by the thread at the start.
+     */
+    public record Sample(long nanos, long allocated) {}
+
+    /**
+     * The timings of one stage, in a form JMX clients can read.
+     */
+    public static class StageSnapshot {
+        private final String name;
+        private final long   count;
+        private final long   totalNanos;
+        private final long   maxNanos;
+        private final long   allocatedBytes;
+
+        @ConstructorProperties({"name", "count", "totalNanos", "maxNanos", "allocatedBytes"})
+        public StageSnapshot(final String name, final long count, final long totalNanos, final long maxNanos, final long allocatedBytes) {
+            this.name           = name;
+            this.count          = count;
+            this.totalNanos     = totalNanos;
+            this.maxNanos       = maxNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public final String getName()           { return name;           }
+        public final long   getCount()          { return count;          }
+        public final long   getTotalNanos()     { return totalNanos;     }
+        public final long   getMaxNanos()       { return maxNanos;       }
+        public final long   getAllocatedBytes() { return allocatedBytes; }
+
+        /**
+         * @return The average wall time of a run, in nanoseconds.
+         */
+        public final long getMeanNanos() {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s count=%d total=%.1fms mean=%.1fus max=%.1fus allocated=%dKiB",
+                                 name, count, totalNanos / 1e6, getMeanNanos() / 1e3, maxNanos / 1e3, allocatedBytes >> 10);
+        }
+    }
+
+    /**
+     * The latency distribution of one kind of query, in a form JMX clients
+     * can read. Percentiles are the upper bound of the power of two bucket
+     * they fall in, so they overestimate by less than a factor of two, but
+     * never exceed the slowest latency.
+     */
+    public static class LatencySnapshot {
+        private final String kind;
+        private final long   count;
+        private final long   p50Nanos;
+        private final long   p90Nanos;
+        private final long   p99Nanos;
+        private final long   maxNanos;
+
+        @ConstructorProperties({"kind", "count", "p50Nanos", "p90Nanos", "p99Nanos", "maxNanos"})
+        public LatencySnapshot(final String kind, final long count, final long p50Nanos, final long p90Nanos, final long p99Nanos, final long maxNanos) {
+            this.kind     = kind;
+            this.count    = count;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public final String getKind()     { return kind;     }
+        public final long   getCount()    { return count;    }
+        public final long   getP50Nanos() { return p50Nanos; }
+        public final long   getP90Nanos() { return p90Nanos; }
+        public final long   getP99Nanos() { return p99Nanos; }
+        public final long   getMaxNanos() { return maxNanos; }
+
+        @Override
+        public String toString() {
+            return String.format("query %-9s count=%d p50<%.1fus p90<%.1fus p99<%.1fus max=%.1fus",
+                                 kind, count, p50Nanos / 1e3, p90Nanos / 1e3, p99Nanos / 1e3, maxNanos / 1e3);
+        }
+    }
+
+    /**
+     * The counters of one stage.
+     */
+    private static class StageCounters {
+        private final LongAdder       count     = new LongAdder();
+        private final LongAdder       nanos     = new LongAdder();
+        private final LongAccumulator max       = new LongAccumulator(Math::max, 0);
+        private final LongAdder       allocated = new LongAdder();
+
+        private void add(final long elapsed, final long bytes) {
+            count.increment();
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+            allocated.add(Math.max(0, bytes));
+        }
+
+        private void reset() {
+            count.reset();
+            nanos.reset();
+            max.reset();
+            allocated.reset();
+        }
+    }
+
+    /**
+     * Counts latencies in power of two buckets: bucket {@code b} holds the
+     * latencies in {@code [2^(b-1), 2^b)} nanoseconds.
+     */
+    private static class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+        private final LongAccumulator max     = new LongAccumulator(Math::max, 0);
+
+        private void add(final long nanos) {
+            buckets.incrementAndGet(Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(1, nanos))));
+            max.accumulate(nanos);
+        }
+
+        private LatencySnapshot snapshot(final String kind) {
+            final var counts  = new long[Long.SIZE];
+            final var slowest = max.get();
+            var total = 0L;
+            for (int b = 0; b < counts.length; b++) total += counts[b] = buckets.get(b);
+            return new LatencySnapshot(kind, total, percentile(counts, total, 0.50, slowest), percentile(counts, total, 0.90, slowest),
+                                       percentile(counts, total, 0.99, slowest), slowest);
+        }
+
+        // upper bound of the bucket holding the given share of the latencies, never above the slowest latency
+        private static long percentile(final long[] counts, final long total, final double share, final long slowest) {
+            var seen = 0L;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen > 0 && seen >= share * total) return Math.min(slowest, (b >= Long.SIZE - 1) ? Long.MAX_VALUE : 1L << b);
+            }
+            return 0;
+        }
+    }
+}
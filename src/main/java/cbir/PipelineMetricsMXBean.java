@@ -0,0 +1,32 @@
+package cbir;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link PipelineMetrics}, registered with the
+ * platform MBean server as {@value PipelineMetrics#OBJECT_NAME} so the
+ * counters can be read with JConsole, VisualVM or any other JMX client.
+ */
+public interface PipelineMetricsMXBean {
+    boolean isEnabled();
+    void    setEnabled(boolean enabled);
+
+    long getImagesProcessed();
+    long getBytesDecoded();
+    long getQueries();
+
+    /**
+     * @return The timings of each stage of the pipeline, by stage name.
+     */
+    Map<String, PipelineMetrics.StageSnapshot> getStages();
+
+    /**
+     * @return The latency distribution of each kind of query, by kind.
+     */
+    Map<String, PipelineMetrics.LatencySnapshot> getQueryLatencies();
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,334 @@
+package cbir;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compresses the feature rows of a {@link FeatureStore} into short codes using
+ * product quantization, so that large collections can be searched from memory
+ * while their exact features stay in a (possibly memory-mapped) store.
+ *
+ * <br>
+ * <br>
+ * The features are split into {@code m} contiguous subspaces and a codebook of
+ * up to 256 centroids is trained for each subspace with k-means. Each image is
+ * then encoded as {@code m} bytes, the index of the nearest centroid in every
+ * subspace. With the default of 16 subspaces, an 89 feature row shrinks from
+ * 712 bytes to 16 bytes.
+ *
+ * <br>
+ * <br>
+ * Queries use asymmetric distance computation: the query itself isn't
+ * quantized. Instead, the weighted Manhattan distance from the query to every
+ * centroid is computed once per query, and the estimated distance to an image
+ * is the sum of {@code m} table lookups. The nearest candidates by estimated
+ * distance are then re-ranked by their exact distance read from the store.
+ */
+public class ProductQuantizer {
+    private static final int MAX_CENTROIDS = 256; // codes are stored in one byte per subspace
+
+    private final FeatureStore store;     // exact features, used to train the codebooks and to re-rank
+    private final int[]        start;     // first feature of each subspace, with the stride as last entry
+    private final double[][]   codebooks; // centroids of each subspace, stored row-major: [subspace][centroid * width + feature]
+    private final byte[][]     codes;     // centroid of each image in each subspace: [subspace][image]
+    private final Options      options;
+
+    public ProductQuantizer(final FeatureStore store) {
+        this(store, new Options());
+    }
+
+    /**
+     * Trains the codebooks on a sample of the rows of the given store and
+     * encodes every row.
+     *
+     * @param store   - The features of each image.
+     * @param options - Options controlling the training and the searches.
+     */
+    public ProductQuantizer(final FeatureStore store, final Options options) {
+        if (store.getSize() == 0)                       throw new RuntimeException("ProductQuantizer: can't quantize empty FeatureStore");
+        if (options.getSubspaces() > store.getStride()) throw new RuntimeException("ProductQuantizer: more subspaces than features");
+
+        final var subspaces = options.getSubspaces();
+        this.store     = store;
+        this.options   = options;
+        this.start     = new int[subspaces + 1];
+        this.codebooks = new double[subspaces][];
+        this.codes     = new byte[subspaces][store.getSize()];
+
+        // split the features into subspaces whose sizes differ by at most one
+        for (int s = 0; s <= subspaces; s++) start[s] = s * store.getStride() / subspaces;
+
+        final var sample = sampleRows(new Random(options.getSeed()));
+        for (int s = 0; s < subspaces; s++) codebooks[s] = train(sample, s, new Random(options.getSeed() + s));
+        encode();
+    }
+
+    public final int     getSize()      { return store.getSize(); }
+    public final int     getSubspaces() { return codebooks.length;  }
+    public final Options getOptions()   { return options;          }
+
+    /**
+     * @return The number of bytes used by the codes of all images.
+     */
+    public final long getCodeBytes() {
+        return (long) codes.length * store.getSize();
+    }
+
+    /**
+     * Returns the code of the given image.
+     *
+     * @param image - The index of the image.
+     * @return The index of the image's centroid in each subspace.
+     */
+    public final int[] getCode(final int image) {
+        final var code = new int[codes.length];
+        for (int s = 0; s < codes.length; s++) code[s] = codes[s][image] & 0xff;
+        return code;
+    }
+
+    /**
+     * Estimates the weighted Manhattan distance between the given query and
+     * every image from the images' codes.
+     *
+     * @param query  - The features to compare the images with.
+     * @param weight - Weight assigned to each feature.
+     * @return The estimated distance of each image, indexed by image.
+     */
+    public double[] estimateDistances(final double[] query, final double[] weight) {
+        final var distances = new double[store.getSize()];
+        for (int s = 0; s < codes.length; s++) {
+            final var table = distanceTable(query, weight, s);
+            final var code  = codes[s];
+            for (int i = 0; i < distances.length; i++) distances[i] += table[code[i] & 0xff];
+        }
+        return distances;
+    }
+
+    /**
+     * Returns the {@code k} images nearest to the given query by weighted
+     * Manhattan distance. The {@code k * rerankFactor} nearest images by
+     * estimated distance are compared exactly with the query, and the
+     * {@code k} nearest of those are returned.
+     *
+     * @param query  - The features to search for.
+     * @param weight - Weight assigned to each feature.
+     * @param k      - The number of images to return.
+     * @return The indices of the {@code k} nearest images, nearest first, or
+     *         of every image if the store holds fewer than {@code k}.
+     */
+    public int[] nearest(final double[] query, final double[] weight, final int k) {
+        final var count      = Math.min(k, store.getSize());
+        final var candidates = (int) Math.min(store.getSize(), (long) count * options.getRerankFactor());
+        final var identity   = new int[store.getSize()];
+        Arrays.setAll(identity, i -> i);
+
+        // shortlist by estimated distance, then re-rank the shortlist by exact distance
+        final var shortlist = Ranking.nearest(estimateDistances(query, weight), identity, candidates);
+        final var exact     = new double[shortlist.length];
+        for (int i = 0; i < shortlist.length; i++) exact[i] = store.weightedDistance(shortlist[i], query, weight);
+
+        final var priority = new int[shortlist.length];
+        for (int i = 0; i < priority.length; i++) priority[i] = shortlist[i];
+        final var order = Ranking.nearest(exact, priority, count);
+        for (int i = 0; i < order.length; i++) order[i] = shortlist[order[i]];
+        return order;
+    }
+
+    /**
+     * Returns the ranking of the images by their weighted distance from the
+     * given query, nearest first. The ranking is extended by searching for
+     * more neighbours as deeper ranks are requested, which may reorder images
+     * that were already ranked.
+     *
+     * @param query  - The features to search for.
+     * @param weight - Weight assigned to each feature.
+     * @return A ranking of the images by distance.
+     */
+    public Ranking rank(final double[] query, final double[] weight) {
+        final var features = query.clone();
+        final var weights  = weight.clone();
+        return new Ranking(store.getSize()) {
+            @Override
+            protected int[] rank(final int count) {
+                return ProductQuantizer.this.nearest(features, weights, count);
+            }
+        };
+    }
+
+    // weighted distance from the query to each centroid of the given subspace
+    private double[] distanceTable(final double[] query, final double[] weight, final int subspace) {
+        final var width    = start[subspace + 1] - start[subspace];
+        final var features = Arrays.copyOfRange(query,  start[subspace], start[subspace + 1]);
+        final var weights  = Arrays.copyOfRange(weight, start[subspace], start[subspace + 1]);
+        final var table    = new double[codebooks[subspace].length / width];
+        for (int c = 0; c < table.length; c++)
+            table[c] = DistanceKernel.DEFAULT.weightedDistance(codebooks[subspace], c * width, features, weights, width);
+        return table;
+    }
+
+    // copies up to trainingSize distinct rows, chosen at random, out of the store
+    private double[][] sampleRows(final Random random) {
+        final var size    = store.getSize();
+        final var indices = new int[size];
+        Arrays.setAll(indices, i -> i);
+
+        final var count  = Math.min(size, options.getTrainingSize());
+        final var sample = new double[count][store.getStride()];
+        for (int i = 0; i < count; i++) {
+            final var j = i + random.nextInt(size - i);
+            final var t = indices[i];
+            indices[i] = indices[j];
+            indices[j] = t;
+            store.copyRow(indices[i], sample[i]);
+        }
+        return sample;
+    }
+
+    // runs k-means on one subspace of the sample, assigning rows by Manhattan distance
+    private double[] train(final double[][] sample, final int subspace, final Random random) {
+        final var from      = start[subspace];
+        final var width     = start[subspace + 1] - from;
+        final var k         = Math.min(MAX_CENTROIDS, sample.length);
+        final var centroids = new double[k * width];
+        final var assigned  = new int[sample.length];
+        final var features  = new double[width];
+
+        // initialize the centroids with distinct random rows of the sample
+        final var order = new int[sample.length];
+        Arrays.setAll(order, i -> i);
+        for (int c = 0; c < k; c++) {
+            final var j = c + random.nextInt(sample.length - c);
+            final var t = order[c];
+            order[c] = order[j];
+            order[j] = t;
+            System.arraycopy(sample[order[c]], from, centroids, c * width, width);
+        }
+
+        for (int iteration = 0; iteration < options.getIterations(); iteration++) {
+            for (int i = 0; i < sample.length; i++) {
+                System.arraycopy(sample[i], from, features, 0, width);
+                assigned[i] = nearestCentroid(centroids, features, width);
+            }
+
+            // move each centroid to the mean of its rows, keeping it in place if it has none
+            final var sums   = new double[k][width];
+            final var counts = new int[k];
+            for (int i = 0; i < sample.length; i++) {
+                counts[assigned[i]]++;
+                for (int f = 0; f < width; f++) sums[assigned[i]][f] += sample[i][from + f];
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) continue;
+                for (int f = 0; f < width; f++) centroids[c * width + f] = sums[c][f] / counts[c];
+            }
+        }
+        return centroids;
+    }
+
+    private void encode() {
+        final var row      = new double[store.getStride()];
+        final var features = new double[store.getStride()];
+        for (int i = 0; i < store.getSize(); i++) {
+            store.copyRow(i, row);
+            for (int s = 0; s < codes.length; s++) {
+                final var width = start[s + 1] - start[s];
+                System.arraycopy(row, start[s], features, 0, width);
+                codes[s][i] = (byte) nearestCentroid(codebooks[s], features, width);
+            }
+        }
+    }
+
+    // index of the centroid nearest to the given subspace features by Manhattan distance
+    private static int nearestCentroid(final double[] centroids, final double[] features, final int width) {
+        var nearest  = 0;
+        var smallest = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < centroids.length / width; c++) {
+            final var distance = DistanceKernel.DEFAULT.distance(centroids, c * width, features, width);
+            if (distance < smallest) {
+                smallest = distance;
+                nearest  = c;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Options controlling how a {@code ProductQuantizer} is trained and
+     * searched.
+     */
+    public static class Options {
+        private int  subspaces    = 16;
+        private int  iterations   = 8;
+        private int  trainingSize = 10_000;
+        private int  rerankFactor = 10;
+        private long seed         = 0x5eedL;
+
+        public final int  getSubspaces()    { return subspaces;    }
+        public final int  getIterations()   { return iterations;   }
+        public final int  getTrainingSize() { return trainingSize; }
+        public final int  getRerankFactor() { return rerankFactor; }
+        public final long getSeed()         { return seed;         }
+
+        /**
+         * Sets the number of subspaces the features are split into, which is
+         * also the number of bytes in each image's code.
+         *
+         * @param subspaces - The number of subspaces.
+         * @return This {@code Options} object.
+         */
+        public final Options subspaces(final int subspaces) {
+            if (subspaces < 1) throw new RuntimeException("ProductQuantizer: subspaces must be at least 1");
+            this.subspaces = subspaces;
+            return this;
+        }
+
+        /**
+         * Sets the number of k-means iterations used to train each codebook.
+         *
+         * @param iterations - The number of iterations.
+         * @return This {@code Options} object.
+         */
+        public final Options iterations(final int iterations) {
+            if (iterations < 0) throw new RuntimeException("ProductQuantizer: iterations can't be negative");
+            this.iterations = iterations;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of images sampled to train the codebooks.
+         *
+         * @param trainingSize - The maximum number of training images.
+         * @return This {@code Options} object.
+         */
+        public final Options trainingSize(final int trainingSize) {
+            if (trainingSize < 1) throw new RuntimeException("ProductQuantizer: training size must be at least 1");
+            this.trainingSize = trainingSize;
+            return this;
+        }
+
+        /**
+         * Sets how many candidates, per image requested, are re-ranked by
+         * their exact distance. Larger values trade speed for recall.
+         *
+         * @param rerankFactor - The number of candidates per requested image.
+         * @return This {@code Options} object.
+         */
+        public final Options rerankFactor(final int rerankFactor) {
+            if (rerankFactor < 1) throw new RuntimeException("ProductQuantizer: rerank factor must be at least 1");
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * Sets the seed used to sample the training images and to initialize
+         * the codebooks, so the same store always gets the same codes.
+         *
+         * @param seed - The random seed.
+         * @return This {@code Options} object.
+         */
+        public final Options seed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cbir;
+
+/**
+ * Finds the images nearest to a query by scanning every image, while avoiding
+ * most of the work of comparing images that can't be among the nearest.
+ *
+ * <br>
+ * <br>
+ * Two kinds of pruning are used once {@code k} images have been found:
+ *
+ * <ul>
+ * <li> Lower bound - Every group of {@code groupSize} adjacent bins is summed
+ *      into a coarse histogram. The Manhattan distance between two coarse
+ *      histograms never exceeds the distance between the full histograms, so
+ *      an image whose coarse distance is already greater than the k-th
+ *      nearest distance is skipped without reading its full histogram.
+ * <li> Early abandon - The full distance of the remaining images is
+ *      abandoned as soon as its partial sum exceeds the k-th nearest
+ *      distance.
+ * </ul>
+ *
+ * <br>
+ * <br>
+ * Neither kind of pruning can drop an image that belongs among the nearest,
+ * so the results match a full scan. How much work was avoided is counted in
+ * {@link #getStats()}.
+ */
+public class PrunedScan {
+    public static final int DEFAULT_GROUP_SIZE = 4;
+
+    private static final double SLACK = 1e-12; // absorbs rounding in the coarse sums
+
+    private final FeatureStore store;     // histograms of each image
+    private final FeatureStore coarse;    // sums of each group of adjacent bins of each histogram
+    private final int          groupSize; // number of adjacent bins summed into each coarse bin
+    private final PruningStats stats;
+
+    public PrunedScan(final FeatureStore store) {
+        this(store, DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * Creates the coarse histograms of every image in the given store.
+     *
+     * @param store     - The histograms of each image.
+     * @param groupSize - The number of adjacent bins summed into each bin of
+     *                    the coarse histograms.
+     */
+    public PrunedScan(final FeatureStore store, final int groupSize) {
+        if (groupSize < 1) throw new RuntimeException("PrunedScan: group size must be at least 1");
+
+        this.store     = store;
+        this.groupSize = groupSize;
+        this.stats     = new PruningStats();
+        this.coarse    = new HeapFeatureStore(store.getSize(), (store.getStride() + groupSize - 1) / groupSize);
+
+        final var row = new double[store.getStride()];
+        for (int i = 0; i < store.getSize(); i++) {
+            store.copyRow(i, row);
+            final var sums = coarsen(row);
+            for (int g = 0; g < sums.length; g++) coarse.set(i, g, sums[g]);
+        }
+    }
+
+    public final int          getSize()      { return store.getSize(); }
+    public final int          getGroupSize() { return groupSize;       }
+    public final PruningStats getStats()     { return stats;           }
+
+    /**
+     * Returns the {@code k} images nearest to the given query by Manhattan
+     * distance.
+     *
+     * @param query - The histogram to search for.
+     * @param k     - The number of images to return.
+     * @return The indices of the {@code k} nearest images, nearest first, with
+     *         images at the same distance ordered by index.
+     */
+    public int[] nearest(final double[] query, final int k) {
+        final var result = new Neighbours(Math.min(k, store.getSize()));
+        if (result.getCapacity() == 0) return new int[0];
+
+        final var coarseQuery = coarsen(query);
+
+        // count locally and publish once, so the shared counters stay out of the loop
+        final var read          = new int[1]; // features read by the last early-abandoning distance
+        var       bounded       = 0;
+        var       abandoned     = 0;
+        var       abandonedBins = 0L;
+        for (int i = 0; i < store.getSize(); i++) {
+            if (!result.isFull()) {
+                result.offer(i, store.distance(i, query));
+                continue;
+            }
+
+            // images are visited in index order, so an image at the k-th distance can't displace any image found
+            final var limit = result.bound(1.0) + SLACK;
+            if (coarse.distance(i, coarseQuery) > limit) {
+                bounded++;
+                continue;
+            }
+
+            final var distance = store.distance(i, query, limit, read);
+            if (distance > limit) {
+                abandoned++;
+                abandonedBins += store.getStride() - read[0];
+                continue;
+            }
+            result.offer(i, distance);
+        }
+
+        stats.record(store.getSize(), store.getStride(), bounded, abandoned, (long) bounded * store.getStride(), abandonedBins);
+        return result.sorted();
+    }
+
+    /**
+     * Returns the ranking of the images by their distance from the given
+     * query, nearest first. The ranking is extended by scanning again for
+     * more neighbours as deeper ranks are requested.
+     *
+     * @param query - The histogram to search for.
+     * @return A ranking of the images by distance.
+     */
+    public Ranking rank(final double[] query) {
+        final var histogram = query.clone();
+        return new Ranking(store.getSize()) {
+            @Override
+            protected int[] rank(final int count) {
+                return PrunedScan.this.nearest(histogram, count);
+            }
+        };
+    }
+
+    // sums each group of adjacent bins of the histogram
+    private double[] coarsen(final double[] histogram) {
+        final var sums = new double[coarse.getStride()];
+        for (int b = 0; b < store.getStride(); b++) sums[b / groupSize] += histogram[b];
+        return sums;
+    }
+}
@@ -0,0 +1,98 @@
+package cbir;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how much work a {@link PrunedScan} avoided. The counters are
+ * cumulative over every search since the scan was created or last reset, and
+ * may be updated by concurrent searches.
+ */
+public class PruningStats {
+    private final LongAdder queries       = new LongAdder(); // number of searches
+    private final LongAdder images        = new LongAdder(); // images considered by all searches
+    private final LongAdder bins          = new LongAdder(); // bins of the images considered by all searches
+    private final LongAdder bounded       = new LongAdder(); // images skipped by their coarse lower bound
+    private final LongAdder abandoned     = new LongAdder(); // images whose distance was abandoned part way
+    private final LongAdder compared      = new LongAdder(); // images whose full distance was calculated
+    private final LongAdder boundedBins   = new LongAdder(); // bins of the images skipped by their coarse lower bound
+    private final LongAdder abandonedBins = new LongAdder(); // bins left unread by the abandoned distances
+
+    public final long getQueries()       { return queries.sum();       }
+    public final long getImages()        { return images.sum();        }
+    public final long getBins()          { return bins.sum();          }
+    public final long getBounded()       { return bounded.sum();       }
+    public final long getAbandoned()     { return abandoned.sum();     }
+    public final long getCompared()      { return compared.sum();      }
+    public final long getBoundedBins()   { return boundedBins.sum();   }
+    public final long getAbandonedBins() { return abandonedBins.sum(); }
+
+    /**
+     * @return The share of the images considered that were skipped or
+     *         abandoned instead of being fully compared.
+     */
+    public final double getPrunedRatio() {
+        final var total = getImages();
+        return (total == 0) ? 0.0 : (double) (getBounded() + getAbandoned()) / total;
+    }
+
+    /**
+     * @return The share of the bins of the images considered that were never
+     *         read, either by the lower bound or by abandoned distances.
+     */
+    public final double getPrunedBinRatio() {
+        final var total = getBins();
+        return (total == 0) ? 0.0 : (double) (getBoundedBins() + getAbandonedBins()) / total;
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public void reset() {
+        queries.reset();
+        images.reset();
+        bins.reset();
+        bounded.reset();
+        abandoned.reset();
+        compared.reset();
+        boundedBins.reset();
+        abandonedBins.reset();
+    }
+
+    /**
+     * Adds the counts of one search to the counters.
+     *
+     * @param images        - The number of images considered.
+     * @param stride        - The number of bins of each image.
+     * @param bounded       - The number of images skipped by their lower
+     *                        bound.
+     * @param abandoned     - The number of images whose distance was
+     *                        abandoned.
+     * @param boundedBins   - The number of bins of the images skipped by
+     *                        their lower bound.
+     * @param abandonedBins - The number of bins left unread by the abandoned
+     *                        distances.
+     */
+    void record(final int  images,
+                final int  stride,
+                final int  bounded,
+                final int  abandoned,
+                final long boundedBins,
+                final long abandonedBins) {
+        this.queries.increment();
+        this.images.add(images);
+        this.bins.add((long) images * stride);
+        this.bounded.add(bounded);
+        this.abandoned.add(abandoned);
+        this.compared.add(images - bounded - abandoned);
+        this.boundedBins.add(boundedBins);
+        this.abandonedBins.add(abandonedBins);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queries=%d images=%d bounded=%d abandoned=%d compared=%d boundedBins=%d abandonedBins=%d " +
+                             "pruned=%.1f%% prunedBins=%.1f%%",
+                             getQueries(), getImages(), getBounded(), getAbandoned(), getCompared(), getBoundedBins(),
+                             getAbandonedBins(), 100 * getPrunedRatio(), 100 * getPrunedBinRatio());
+    }
+}
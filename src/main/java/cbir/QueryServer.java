@@ -0,0 +1,435 @@
+package cbir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP service answering queries against a {@link FeatureMatrix},
+ * built on the JDK's {@link HttpServer}. Every request reads the same matrix,
+ * which is built once before the server starts; the search structures it
+ * builds on first use are shared by all later requests.
+ *
+ * <br>
+ * <br>
+ * The service answers the following requests, with results as JSON:
+ *
+ * <ul>
+ * <li> {@code GET /images} - The names of the images, in index order.
+ * <li> {@code GET /query?image=<name>} - The images nearest to an image of
+ *      the collection.
+ * <li> {@code POST /query} - The images nearest to the image uploaded as the
+ *      request body.
+ * <li> {@code GET /feedback?image=<name>&relevant=<names>} - The images
+ *      nearest to an image of the collection by relevance feedback distance,
+ *      with the comma separated images marked relevant.
+ * </ul>
+ *
+ * <br>
+ * <br>
+ * Queries accept {@code k} (default 20) and {@code search}. Histogram queries
+ * also accept {@code mode} ({@code intensity} or {@code color-code}) and search
+ * with {@code scan}, {@code pruned}, {@code vptree} or {@code inverted}.
+ * Feedback queries search with {@code scan} or {@code pq}. Malformed requests
+ * are answered with status 400 and an {@code error} message, and uploads
+ * over {@code maxUploadSize} bytes or {@code maxUploadPixels} pixels with
+ * status 413.
+ */
+public class QueryServer {
+    // uploads with more pixels than this are subsampled until they have fewer, since histograms barely change
+    private static final long UPLOAD_DECODE_PIXELS = 1L << 22;
+
+    private final FeatureMatrix        matrix;
+    private final Map<String, Integer> indices;        // index of each image, by name
+    private final HttpServer           server;
+    private final ExecutorService      executor;       // runs the request handlers
+    private final boolean              virtualThreads; // whether each request runs on its own virtual thread
+    private final CountDownLatch       stopped;
+    private final Options              options;
+
+    public QueryServer(final FeatureMatrix matrix) {
+        this(matrix, new Options());
+    }
+
+    /**
+     * Binds the server to the port given by the options, without starting
+     * it.
+     *
+     * @param matrix  - The features of the collection queried.
+     * @param options - Options controlling the server.
+     */
+    public QueryServer(final FeatureMatrix matrix, final Options options) {
+        final var names = matrix.getImageCollection().getNames();
+        this.matrix  = matrix;
+        this.options = options;
+        this.stopped = new CountDownLatch(1);
+        this.indices = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) indices.putIfAbsent(names.get(i), i);
+
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(options.getHost(), options.getPort()), 0);
+        } catch (IOException e) {
+            throw new RuntimeException("QueryServer: can't bind " + options.getHost() + ":" + options.getPort(), e);
+        }
+
+        final var virtual = (options.getThreads() == 0) ? virtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor       = virtualThreads ? virtual : Executors.newFixedThreadPool(options.getThreads() == 0 ? FeatureMatrix.DEFAULT_PARALLELISM : options.getThreads());
+
+        server.setExecutor(executor);
+        server.createContext("/images",   exchange -> handle(exchange, this::images,   "GET"));
+        server.createContext("/query",    exchange -> handle(exchange, this::query,    "GET", "POST"));
+        server.createContext("/feedback", exchange -> handle(exchange, this::feedback, "GET"));
+    }
+
+    public final FeatureMatrix getFeatureMatrix()  { return matrix;                           }
+    public final int           getPort()           { return server.getAddress().getPort(); }
+    public final boolean       isVirtualThreaded() { return virtualThreads;                   }
+    public final Options       getOptions()        { return options;                          }
+
+    /**
+     * Starts answering requests in the background.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to the given delay for the requests being
+     * answered to finish.
+     *
+     * @param delay - The maximum time to wait, in seconds.
+     */
+    public void stop(final int delay) {
+        server.stop(delay);
+        executor.shutdown();
+        stopped.countDown();
+    }
+
+    /**
+     * Blocks the calling thread until the server is stopped.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while
+     *                              waiting.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    private String images(final HttpExchange exchange, final Map<String, String> parameters) {
+        final var json  = new StringBuilder("{\"images\":[");
+        final var names = matrix.getImageCollection().getNames();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) json.append(',');
+            appendString(json, names.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private String query(final HttpExchange exchange, final Map<String, String> parameters) throws IOException {
+        final var type   = Cli.histogramType(parameters.getOrDefault("mode", "intensity"));
+        final var method = Cli.searchMethod(parameters.getOrDefault("search", "scan"));
+        final var k      = parseK(parameters);
+
+        final double[] query;
+        if (exchange.getRequestMethod().equals("POST")) {
+            final var body = exchange.getRequestBody().readNBytes(options.getMaxUploadSize() + 1);
+            if (body.length > options.getMaxUploadSize()) throw new RequestException(413, "upload exceeds " + options.getMaxUploadSize() + " bytes");
+
+            // check the size the header claims before decoding, since a small file can hold a huge image
+            final var size = ImageCollection.readSize(new ByteArrayInputStream(body));
+            if (size == null) throw new RequestException(400, "can't decode the uploaded image");
+            if ((long) size.width * size.height > options.getMaxUploadPixels())
+                throw new RequestException(413, "upload exceeds " + options.getMaxUploadPixels() + " pixels");
+
+            final ImageFeatures features;
+            try {
+                features = ImageCollection.readFeatures(new ByteArrayInputStream(body), uploadSubsampling(size.width, size.height));
+            } catch (RuntimeException e) {
+                throw new RequestException(400, "can't decode the uploaded image");
+            }
+            query = FeatureMatrix.getHistogram(features, type);
+        } else {
+            final var histograms = matrix.getHistograms(type);
+            query = new double[histograms.getStride()];
+            histograms.copyRow(indexOf(parameters.get("image")), query);
+        }
+
+        final var top       = matrix.rank(type, query, method).top(k);
+        final var distances = new double[top.length];
+        for (int i = 0; i < top.length; i++) distances[i] = matrix.getHistograms(type).distance(top[i], query);
+        return results(top, distances);
+    }
+
+    /**
+     * Returns the subsampling used to decode an upload of the given size:
+     * the subsampling set in the options, raised until at most
+     * {@code UPLOAD_DECODE_PIXELS} pixels are decoded.
+     *
+     * @param width  - The width of the uploaded image.
+     * @param height - The height of the uploaded image.
+     * @return The source subsampling factor.
+     */
+    private int uploadSubsampling(final int width, final int height) {
+        var factor = options.getSubsampling();
+        while ((long) Math.ceilDiv(width, factor) * Math.ceilDiv(height, factor) > UPLOAD_DECODE_PIXELS) factor++;
+        return factor;
+    }
+
+    private String feedback(final HttpExchange exchange, final Map<String, String> parameters) {
+        final var image    = indexOf(parameters.get("image"));
+        final var search   = parameters.getOrDefault("search", "scan");
+        final var k        = parseK(parameters);
+        final var marked   = parameters.getOrDefault("relevant", "");
+        final var names    = marked.isEmpty() ? new String[0] : marked.split(",");
+        final var order    = new int[names.length];
+        final var relevant = new boolean[matrix.getImageCollection().getSize()];
+        for (int i = 0; i < names.length; i++) {
+            order[i] = indexOf(names[i]);
+            relevant[order[i]] = true;
+        }
+
+        return switch (search) {
+            case "scan" -> {
+                final var all       = matrix.relevanceAnalysis(image, order, relevant);
+                final var top       = Ranking.byDistance(all).top(k);
+                final var distances = new double[top.length];
+                for (int i = 0; i < top.length; i++) distances[i] = all[top[i]];
+                yield results(top, distances);
+            }
+            case "pq" -> results(matrix.rankRelevance(image, order, relevant).top(k), null);
+            default   -> throw new IllegalArgumentException("feedback searches support scan or pq, not " + search);
+        };
+    }
+
+    private int indexOf(final String name) {
+        if (name == null) throw new IllegalArgumentException("missing image");
+
+        final var index = indices.get(name);
+        if (index == null) throw new RequestException(404, "no image named " + name);
+        return index;
+    }
+
+    private static int parseK(final Map<String, String> parameters) {
+        try {
+            final var k = Integer.parseInt(parameters.getOrDefault("k", "20"));
+            if (k < 1) throw new IllegalArgumentException("k must be at least 1");
+            return k;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("k must be an integer");
+        }
+    }
+
+    // the ranked images as JSON, with a null distance where it wasn't computed
+    private String results(final int[] top, final double[] distances) {
+        final var json = new StringBuilder("{\"results\":[");
+        for (int rank = 0; rank < top.length; rank++) {
+            if (rank > 0) json.append(',');
+            json.append("{\"rank\":").append(rank + 1).append(",\"image\":");
+            appendString(json, matrix.getImageCollection().getNameAt(top[rank]));
+            json.append(",\"distance\":").append((distances == null) ? "null" : Double.toString(distances[rank])).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    // answers the request with the handler's JSON, or with the status and message of the error it throws
+    private void handle(final HttpExchange exchange, final Handler handler, final String... methods) throws IOException {
+        try (exchange) {
+            var status = 200;
+            String body;
+            try {
+                if (!Arrays.asList(methods).contains(exchange.getRequestMethod())) throw new RequestException(405, "method not allowed");
+                body = handler.handle(exchange, parseParameters(exchange.getRequestURI().getRawQuery()));
+            } catch (RequestException e) {
+                status = e.status;
+                body   = error(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body   = error(e.getMessage());
+            } catch (RuntimeException e) {
+                status = 500;
+                body   = error(e.getMessage());
+            }
+
+            final var bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseParameters(final String query) {
+        final var parameters = new HashMap<String, String>();
+        if (query == null || query.isEmpty()) return parameters;
+
+        for (final var pair : query.split("&")) {
+            final var split = pair.indexOf('=');
+            final var name  = (split == -1) ? pair : pair.substring(0, split);
+            final var value = (split == -1) ? ""   : pair.substring(split + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String error(final String message) {
+        final var json = new StringBuilder("{\"error\":");
+        appendString(json, String.valueOf(message));
+        return json.append('}').toString();
+    }
+
+    private static void appendString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final var c = value.charAt(i);
+            switch (c) {
+                case '"'  -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                default   -> {
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else          json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    // a virtual thread per task executor, or null before Java 21, where virtual threads are a preview API
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        String handle(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+    }
+
+    /**
+     * A request that can't be answered, with the HTTP status to answer it
+     * with.
+     */
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private RequestException(final int status, final String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Options controlling a {@code QueryServer}.
+     */
+    public static class Options {
+        private String host            = "localhost";
+        private int    port            = 8080;
+        private int    threads         = 0;
+        private int    subsampling     = 1;
+        private int    maxUploadSize   = 32 << 20;
+        private long   maxUploadPixels = 100_000_000L;
+
+        public final String getHost()            { return host;            }
+        public final int    getPort()            { return port;            }
+        public final int    getThreads()         { return threads;         }
+        public final int    getSubsampling()     { return subsampling;     }
+        public final int    getMaxUploadSize()   { return maxUploadSize;   }
+        public final long   getMaxUploadPixels() { return maxUploadPixels; }
+
+        /**
+         * Sets the address the server listens on. The default only accepts
+         * connections from the local machine.
+         *
+         * @param host - The host name or address to bind.
+         * @return This {@code Options} object.
+         */
+        public final Options host(final String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Sets the port the server listens on.
+         *
+         * @param port - The port, or {@code 0} to pick any free port.
+         * @return This {@code Options} object.
+         */
+        public final Options port(final int port) {
+            if (port < 0 || port > 65535) throw new RuntimeException("QueryServer: port must be in [0, 65535]");
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads answering requests. The default of
+         * {@code 0} answers each request on its own virtual thread when the
+         * runtime supports them, and otherwise uses one thread per processor.
+         *
+         * @param threads - The number of threads, or {@code 0}.
+         * @return This {@code Options} object.
+         */
+        public final Options threads(final int threads) {
+            if (threads < 0) throw new RuntimeException("QueryServer: threads can't be negative");
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the source subsampling used to decode uploaded images, which
+         * should match the subsampling of the collection.
+         *
+         * @param subsampling - The subsampling factor, see
+         *                      {@link ImageCollection.Options#subsampling(int)
+         *                      subsampling}.
+         * @return This {@code Options} object.
+         */
+        public final Options subsampling(final int subsampling) {
+            if (subsampling < 1) throw new RuntimeException("QueryServer: subsampling must be at least 1");
+            this.subsampling = subsampling;
+            return this;
+        }
+
+        /**
+         * Sets the largest accepted upload, larger uploads are answered with
+         * status 413.
+         *
+         * @param maxUploadSize - The maximum upload size, in bytes.
+         * @return This {@code Options} object.
+         */
+        public final Options maxUploadSize(final int maxUploadSize) {
+            if (maxUploadSize < 1) throw new RuntimeException("QueryServer: max upload size must be at least 1");
+            this.maxUploadSize = maxUploadSize;
+            return this;
+        }
+
+        /**
+         * Sets the largest accepted upload by its width times height, read
+         * from the image's header before it is decoded. Larger uploads are
+         * answered with status 413. Accepted uploads of more than a few
+         * megapixels are decoded subsampled, so the default of 100
+         * megapixels never decodes a full resolution image that large.
+         *
+         * @param maxUploadPixels - The maximum number of pixels of an upload.
+         * @return This {@code Options} object.
+         */
+        public final Options maxUploadPixels(final long maxUploadPixels) {
+            if (maxUploadPixels < 1) throw new RuntimeException("QueryServer: max upload pixels must be at least 1");
+            this.maxUploadPixels = maxUploadPixels;
+            return this;
+        }
+    }
+}
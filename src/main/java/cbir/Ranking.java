@@ -0,0 +1,157 @@
+package cbir;
+
+import java.util.Arrays;
+
+/**
+ * An ordering of the images in a collection, nearest first, that is computed
+ * lazily. Only the images up to the deepest rank requested so far are ranked;
+ * when a deeper rank is requested, the ranked prefix is extended by at least
+ * doubling it. Each extension selects the {@code count} nearest images again
+ * from all {@code n} images, in {@code O(n log count)} time, so paging
+ * through {@code m} results takes {@code O(log m)} extensions and
+ * {@code O(n log² m)} time overall, instead of sorting all {@code n} images
+ * up front. The first page, the common case, costs a single
+ * {@code O(n log m)} selection.
+ *
+ * <br>
+ * <br>
+ * Rankings are created with the static factory methods. Subclasses plug in
+ * other search strategies by implementing {@link #rank(int)}.
+ */
+public abstract class Ranking {
+    private static final int MINIMUM_RANKED = 20; // smallest prefix ranked at once
+
+    private final int size;                // number of images in the ranking
+    private int[]     ranked = new int[0]; // the ranked prefix, nearest first
+
+    protected Ranking(final int size) {
+        if (size < 0) throw new RuntimeException("Ranking: invalid size");
+        this.size = size;
+    }
+
+    /**
+     * Returns the ranking of the images in their collection order.
+     *
+     * @param size - The number of images in the collection.
+     * @return A ranking that puts image i at rank i.
+     */
+    public static Ranking identity(final int size) {
+        return new Ranking(size) {
+            @Override
+            protected int[] rank(final int count) {
+                final var order = new int[count];
+                Arrays.setAll(order, i -> i);
+                return order;
+            }
+        };
+    }
+
+    /**
+     * Returns the ranking of the images by their distance from a query,
+     * nearest first. Images at the same distance are ranked by their index.
+     *
+     * @param distances - The distance between the query and each image,
+     *                    indexed by image.
+     * @return A ranking of the images by distance.
+     */
+    public static Ranking byDistance(final double[] distances) {
+        return byDistance(distances, identity(distances.length));
+    }
+
+    /**
+     * Returns the ranking of the images by their distance from a query,
+     * nearest first. Images at the same distance keep the order they have in
+     * {@code previous}, as a stable sort of the previous order would. Images
+     * that {@code previous} hasn't ranked yet come after the ones it has, in
+     * index order.
+     *
+     * @param distances - The distance between the query and each image,
+     *                    indexed by image.
+     * @param previous  - The ranking used to order images at the same
+     *                    distance.
+     * @return A ranking of the images by distance.
+     */
+    public static Ranking byDistance(final double[] distances, final Ranking previous) {
+        if (distances.length != previous.getSize()) throw new RuntimeException("Ranking: distances don't match previous ranking");
+
+        // rank of each image in the previous ranking, used to break ties
+        final var ranked   = previous.getRanked();
+        final var priority = new int[distances.length];
+        for (int i = 0; i < priority.length; i++) priority[i] = ranked.length + i;
+        for (int i = 0; i < ranked.length;   i++) priority[ranked[i]] = i;
+
+        return new Ranking(distances.length) {
+            @Override
+            protected int[] rank(final int count) {
+                return nearest(distances, priority, count);
+            }
+        };
+    }
+
+    public final int getSize() { return size; }
+
+    /**
+     * Returns the image at the given rank, ranking more images if needed.
+     *
+     * @param rank - The rank of the image, starting at {@code 0} for the
+     *               nearest image.
+     * @return The index of the image at the given rank.
+     */
+    public final int get(final int rank) {
+        if (rank < 0 || rank >= size) throw new RuntimeException("Ranking: rank " + rank + " out of bounds");
+        ensureRanked(rank + 1);
+        return ranked[rank];
+    }
+
+    /**
+     * Returns the {@code k} nearest images, ranking more images if needed.
+     *
+     * @param k - The number of images to return.
+     * @return The indices of the {@code k} nearest images, nearest first, or
+     *         of every image if the ranking holds fewer than {@code k}.
+     */
+    public final int[] top(final int k) {
+        final var count = Math.min(k, size);
+        ensureRanked(count);
+        return Arrays.copyOf(ranked, count);
+    }
+
+    /**
+     * @return The images ranked so far, nearest first.
+     */
+    public final int[] getRanked() {
+        return ranked.clone();
+    }
+
+    /**
+     * Returns the {@code count} nearest images, nearest first. Called with a
+     * growing {@code count} each time more images need to be ranked.
+     *
+     * @param count - The number of images to rank, at most {@link #getSize()}.
+     * @return The indices of the {@code count} nearest images.
+     */
+    protected abstract int[] rank(int count);
+
+    private void ensureRanked(final int count) {
+        if (count <= ranked.length) return;
+        final var target = Math.min(size, Math.max(count, Math.max(MINIMUM_RANKED, 2 * ranked.length)));
+        ranked = rank(target);
+    }
+
+    /**
+     * Selects the {@code k} images with the smallest distance using a bounded
+     * max-heap, in {@code O(n log k)} time, and returns them nearest first.
+     * Images at the same distance are ordered by ascending {@code priority}.
+     *
+     * @param distances - The distance of each image, indexed by image.
+     * @param priority  - The tie-breaking priority of each image, indexed by
+     *                    image. Must be unique for each image.
+     * @param k         - The number of images to select.
+     * @return The indices of the {@code k} nearest images.
+     */
+    static int[] nearest(final double[] distances, final int[] priority, final int k) {
+        final var result = new Neighbours(Math.min(k, distances.length));
+        for (int i = 0; i < distances.length; i++) result.offer(i, distances[i], priority[i]);
+        return result.sorted();
+    }
+}
@@ -0,0 +1,33 @@
+package cbir;
+
+/**
+ * A {@link DistanceKernel} that compares one feature at a time.
+ */
+final class ScalarKernel implements DistanceKernel {
+    static final ScalarKernel INSTANCE = new ScalarKernel();
+
+    private ScalarKernel() {}
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public double distance(final double[] values, final int offset, final double[] query, final int length) {
+        var distance = 0.0;
+        for (int i = 0; i < length; i++) distance += Math.abs(values[offset + i] - query[i]);
+        return distance;
+    }
+
+    @Override
+    public double weightedDistance(final double[] values,
+                                   final int      offset,
+                                   final double[] query,
+                                   final double[] weight,
+                                   final int      length) {
+        var distance = 0.0;
+        for (int i = 0; i < length; i++) distance += weight[i] * Math.abs(values[offset + i] - query[i]);
+        return distance;
+    }
+}
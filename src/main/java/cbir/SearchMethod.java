@@ -0,0 +1,11 @@
+package cbir;
+
+/**
+ * The ways of finding the images nearest to a query histogram.
+ */
+public enum SearchMethod {
+    SCAN,     // compare the query with every image
+    PRUNED,   // scan every image, skipping those that are shown to be too far early
+    VP_TREE,  // search a vantage-point tree over the histograms
+    INVERTED  // compare the query with the candidates of an inverted index over color-code bins
+}
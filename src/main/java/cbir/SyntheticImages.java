@@ -0,0 +1,267 @@
+package cbir;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates reproducible collections of synthetic images, used to measure
+ * loading, memory and query latency on collections far larger than the
+ * sample images.
+ *
+ * <br>
+ * <br>
+ * Each image is generated from the seed and its own index alone, so any
+ * image can be generated on its own, in any order and on any thread, and is
+ * the same every time. The images can be written to a directory as PNG files,
+ * or loaded straight into an {@link ImageCollection} without touching the
+ * disk, see {@link #toCollection(ImageCollection.Options) toCollection}.
+ */
+public class SyntheticImages {
+    private static final int  PALETTE_SIZE = 64;                  // colors the PALETTE images pick from
+    private static final int  BLOCK_SIZE   = 8;                   // side of each single-colored block of a PALETTE image
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // spreads consecutive indices over the seed space
+
+    private final Options options;
+    private final int[]   palette; // colors shared by every PALETTE image
+
+    public SyntheticImages(final int count) {
+        this(new Options().count(count));
+    }
+
+    /**
+     * Creates a generator of the images described by the given options. No
+     * image is generated until it is requested.
+     *
+     * @param options - Options describing the images.
+     */
+    public SyntheticImages(final Options options) {
+        this.options = options;
+        this.palette = new int[PALETTE_SIZE];
+
+        final var random = new SplittableRandom(options.getSeed());
+        for (int c = 0; c < PALETTE_SIZE; c++) palette[c] = random.nextInt(1 << 24);
+    }
+
+    public final int     getCount()   { return options.getCount(); }
+    public final Options getOptions() { return options;            }
+
+    /**
+     * Returns the file name of the image at the given index, padded so the
+     * names sort in index order.
+     *
+     * @param index - The index of the image.
+     * @return The name of the image.
+     */
+    public final String getNameAt(final int index) {
+        return String.format("synthetic-%07d.png", index);
+    }
+
+    /**
+     * @return The names of every image, in index order. The names are
+     *         created as they are read.
+     */
+    public final List<String> getNames() {
+        return new AbstractList<>() {
+            @Override public String get(final int index) { return getNameAt(index);   }
+            @Override public int    size()               { return options.getCount(); }
+        };
+    }
+
+    /**
+     * Generates the pixels of the image at the given index.
+     *
+     * @param index - The index of the image.
+     * @return The {@code width * height} pixels of the image, packed as
+     *         {@code 0xRRGGBB} in row-major order.
+     */
+    public int[] getPixelsAt(final int index) {
+        if (index < 0 || index >= options.getCount()) throw new RuntimeException("SyntheticImages: no image at index " + index);
+
+        final var random = new SplittableRandom(options.getSeed() + GOLDEN_GAMMA * (index + 1L));
+        final var width  = options.getWidth();
+        final var pixels = new int[width * options.getHeight()];
+
+        switch (options.getDistribution()) {
+            case UNIFORM -> {
+                for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextInt(1 << 24);
+            }
+            case CLUSTERED -> {
+                final var base   = random.nextInt(1 << 24);
+                final var spread = 16 + random.nextInt(96);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = (channel(base >> 16, spread, random) << 16) |
+                                (channel(base >>  8, spread, random) <<  8) |
+                                 channel(base,       spread, random);
+                }
+            }
+            case PALETTE -> {
+                // fill blocks with a handful of the palette's colors
+                final var colors = new int[2 + random.nextInt(5)];
+                for (int c = 0; c < colors.length; c++) colors[c] = palette[random.nextInt(PALETTE_SIZE)];
+
+                final var blocksWide = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                final var blocks     = new int[blocksWide * ((options.getHeight() + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+                for (int b = 0; b < blocks.length; b++) blocks[b] = colors[random.nextInt(colors.length)];
+                for (int i = 0; i < pixels.length; i++) pixels[i] = blocks[(i / width / BLOCK_SIZE) * blocksWide + (i % width) / BLOCK_SIZE];
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Generates the image at the given index.
+     *
+     * @param index - The index of the image.
+     * @return A new RGB image.
+     */
+    public BufferedImage getImageAt(final int index) {
+        final var image = new BufferedImage(options.getWidth(), options.getHeight(), BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, options.getWidth(), options.getHeight(), getPixelsAt(index), 0, options.getWidth());
+        return image;
+    }
+
+    /**
+     * Creates a collection of the images, generating each image instead of
+     * decoding a file. A streaming collection generates the images again
+     * whenever they are requested, so it holds only their histograms.
+     *
+     * @param options - Options controlling how the collection loads the
+     *                  images. The images aren't files, so the collection
+     *                  can't be indexed or subsampled.
+     * @return A collection of every image, in index order.
+     */
+    public ImageCollection toCollection(final ImageCollection.Options options) {
+        return new ImageCollection(getNames(), this::getImageAt, options);
+    }
+
+    /**
+     * Writes every image to the given directory as a PNG file named by
+     * {@link #getNameAt(int) getNameAt}, creating the directory if needed.
+     * The images are generated and written by {@code threads} workers.
+     *
+     * @param directory - The directory to write to.
+     * @param threads   - The number of images written at the same time.
+     */
+    public void write(final File directory, final int threads) {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new RuntimeException("SyntheticImages: can't create " + directory);
+
+        // each worker writes every workers-th image, starting at its own index
+        final var workers = Math.max(1, Math.min(threads, options.getCount()));
+        final var pool    = Executors.newFixedThreadPool(workers);
+        try {
+            final var pending = new ArrayList<Future<?>>();
+            for (int w = 0; w < workers; w++) {
+                final var first = w;
+                pending.add(pool.submit(() -> {
+                    for (int i = first; i < options.getCount(); i += workers) writeImage(directory, i);
+                }));
+            }
+            for (final var result : pending) result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("SyntheticImages: writing images was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("SyntheticImages: failed to write images", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeImage(final File directory, final int index) {
+        final var file = new File(directory, getNameAt(index));
+        try {
+            if (!ImageIO.write(getImageAt(index), "png", file)) throw new IOException("no PNG writer");
+        } catch (IOException e) {
+            throw new RuntimeException("SyntheticImages: failed to write " + file.getName(), e);
+        }
+    }
+
+    // a channel of the base color moved by up to spread, clamped to [0, 255]
+    private static int channel(final int base, final int spread, final SplittableRandom random) {
+        return Math.max(0, Math.min(255, (base & 0xff) + random.nextInt(-spread, spread + 1)));
+    }
+
+    /**
+     * How the colors of the synthetic images are distributed.
+     */
+    public enum Distribution {
+        UNIFORM,   // every pixel a random color, so all histograms look alike
+        CLUSTERED, // pixels scattered around a random base color per image
+        PALETTE    // blocks of a few colors out of a shared palette, with sparse color-code histograms
+    }
+
+    /**
+     * Options describing the images generated by {@code SyntheticImages}.
+     */
+    public static class Options {
+        private int          count        = 1_000;
+        private int          width        = 64;
+        private int          height       = 64;
+        private long         seed         = 0x5eedL;
+        private Distribution distribution = Distribution.CLUSTERED;
+
+        public final int          getCount()        { return count;        }
+        public final int          getWidth()        { return width;        }
+        public final int          getHeight()       { return height;       }
+        public final long         getSeed()         { return seed;         }
+        public final Distribution getDistribution() { return distribution; }
+
+        /**
+         * Sets the number of images.
+         *
+         * @param count - The number of images.
+         * @return This {@code Options} object.
+         */
+        public final Options count(final int count) {
+            if (count < 0) throw new RuntimeException("SyntheticImages: count can't be negative");
+            this.count = count;
+            return this;
+        }
+
+        /**
+         * Sets the resolution of every image.
+         *
+         * @param width  - The width of each image, in pixels.
+         * @param height - The height of each image, in pixels.
+         * @return This {@code Options} object.
+         */
+        public final Options resolution(final int width, final int height) {
+            if (width < 1 || height < 1) throw new RuntimeException("SyntheticImages: resolution must be at least 1x1");
+            this.width  = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * Sets the seed the images are generated from. The same options
+         * always generate the same images.
+         *
+         * @param seed - The random seed.
+         * @return This {@code Options} object.
+         */
+        public final Options seed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Sets how the colors of the images are distributed.
+         *
+         * @param distribution - The color distribution.
+         * @return This {@code Options} object.
+         */
+        public final Options distribution(final Distribution distribution) {
+            this.distribution = distribution;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package cbir;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+/**
+ * Creates the {@code THUMBNAIL_WIDTH x THUMBNAIL_HEIGHT} thumbnails of a
+ * collection's images on demand, on background threads, and keeps the most
+ * recently used ones within a memory budget. Only the thumbnails of the pages
+ * being looked at are created, rather than one for every image of the
+ * collection up front.
+ *
+ * <br>
+ * <br>
+ * Each image is read from the source at a reduced resolution, such as with
+ * {@link ImageCollection#readImage(java.io.File, int, int) readImage}, and
+ * scaled down by halving it with bilinear interpolation until it is within a
+ * factor of two of the thumbnail. That looks as smooth as an area averaging
+ * scale at a fraction of the cost.
+ *
+ * <br>
+ * <br>
+ * Thumbnails that are {@link #request(int) requested} are created before any
+ * that are only {@link #prefetch(int[]) prefetched}, so prefetching the pages
+ * next to the one on display never delays it.
+ */
+public class ThumbnailCache {
+    public static final int THUMBNAIL_WIDTH  = 140;
+    public static final int THUMBNAIL_HEIGHT = 80;
+
+    // the smallest image the source should decode: a few times the thumbnail, so a subsampled decode doesn't alias
+    public static final int SOURCE_WIDTH  = 4 * THUMBNAIL_WIDTH;
+    public static final int SOURCE_HEIGHT = 4 * THUMBNAIL_HEIGHT;
+
+    private static final int THUMBNAIL_BYTES = THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT * Integer.BYTES;
+
+    private static final int REQUEST  = 0; // priority of a thumbnail about to be shown
+    private static final int PREFETCH = 1; // priority of a thumbnail that may be shown soon
+
+    private final IntFunction<BufferedImage>            source;   // reads the image at the given index
+    private final LinkedHashMap<Integer, BufferedImage> cached;   // created thumbnails, least recently used first
+    private final Map<Integer, Pending>                 pending;  // thumbnails waiting to be created
+    private final ThreadPoolExecutor                    executor; // creates the thumbnails, by priority
+    private final Options                               options;
+    private long                                        sequence; // number of tasks queued, to break priority ties
+    private long                                        bytes;    // memory held by the cached thumbnails
+
+    public ThumbnailCache(final IntFunction<BufferedImage> source) {
+        this(source, new Options());
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param source  - Reads the image at the given index, throwing if it
+     *                  can't. It's called from up to
+     *                  {@code options.getThreads()} threads at once.
+     * @param options - Options controlling the cache.
+     */
+    public ThumbnailCache(final IntFunction<BufferedImage> source, final Options options) {
+        this.source   = source;
+        this.options  = options;
+        this.cached   = new LinkedHashMap<>(16, 0.75f, true);
+        this.pending  = new HashMap<>();
+        this.executor = new ThreadPoolExecutor(options.getThreads(), options.getThreads(), 0, TimeUnit.SECONDS,
+                                               new PriorityBlockingQueue<>(), task -> {
+                                                   final var thread = new Thread(task, "ThumbnailCache");
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               });
+    }
+
+    public final Options getOptions() { return options; }
+
+    public final synchronized int  getCachedCount() { return cached.size(); }
+    public final synchronized long getCachedBytes() { return bytes;         }
+
+    /**
+     * Returns the thumbnail of the image at the specified index if it is
+     * cached, without creating it.
+     *
+     * @param index - The index of the image.
+     * @return The thumbnail, or {@code null} if it isn't cached.
+     */
+    public final synchronized BufferedImage getIfCached(final int index) {
+        return cached.get(index);
+    }
+
+    /**
+     * Returns the thumbnail of the image at the specified index, creating it
+     * on a background thread ahead of any prefetched thumbnails if it isn't
+     * cached.
+     *
+     * @param index - The index of the image.
+     * @return A future completed with the thumbnail, or completed
+     *         exceptionally if the image couldn't be read.
+     */
+    public final CompletableFuture<BufferedImage> request(final int index) {
+        return schedule(index, REQUEST);
+    }
+
+    /**
+     * Creates the thumbnails of the images at the given indices on background
+     * threads, if they aren't cached, after any requested thumbnails.
+     *
+     * @param indices - The indices of the images.
+     */
+    public final void prefetch(final int[] indices) {
+        for (var index : indices) schedule(index, PREFETCH);
+    }
+
+    /**
+     * Stops creating thumbnails. Thumbnails that weren't created yet are never
+     * completed.
+     */
+    public final void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues the creation of a thumbnail, unless it is cached or already
+     * queued at the same or a higher priority. A prefetched thumbnail that is
+     * then requested is queued again at the higher priority; whichever task
+     * runs first creates it.
+     *
+     * @param index    - The index of the image.
+     * @param priority - {@code REQUEST} or {@code PREFETCH}.
+     * @return A future completed with the thumbnail.
+     */
+    private synchronized CompletableFuture<BufferedImage> schedule(final int index, final int priority) {
+        final var thumbnail = cached.get(index);
+        if (thumbnail != null) return CompletableFuture.completedFuture(thumbnail);
+
+        var entry = pending.get(index);
+        if (entry == null) {
+            entry = new Pending(index);
+            pending.put(index, entry);
+        } else if (entry.priority <= priority) {
+            return entry.future;
+        }
+
+        entry.priority = priority;
+        if (!executor.isShutdown()) executor.execute(new Task(entry, priority, sequence++));
+        return entry.future;
+    }
+
+    /**
+     * Creates the thumbnail of a pending image and caches it.
+     *
+     * @param entry - The pending image.
+     */
+    private void create(final Pending entry) {
+        if (!entry.started.compareAndSet(false, true)) return;
+
+        final BufferedImage thumbnail;
+        try {
+            thumbnail = scale(source.apply(entry.index), THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        } catch (RuntimeException e) {
+            synchronized (this) { pending.remove(entry.index); }
+            entry.future.completeExceptionally(e);
+            return;
+        }
+
+        put(entry.index, thumbnail);
+        entry.future.complete(thumbnail);
+    }
+
+    /**
+     * Caches a created thumbnail, evicting the least recently used thumbnails
+     * while the cache is over its memory budget. The newest thumbnail is
+     * always kept.
+     *
+     * @param index     - The index of the image.
+     * @param thumbnail - The thumbnail of the image.
+     */
+    private synchronized void put(final int index, final BufferedImage thumbnail) {
+        pending.remove(index);
+        if (cached.put(index, thumbnail) == null) bytes += THUMBNAIL_BYTES;
+
+        final var iterator = cached.entrySet().iterator();
+        while (bytes > options.getBudget() && cached.size() > 1) {
+            iterator.next();
+            iterator.remove();
+            bytes -= THUMBNAIL_BYTES;
+        }
+    }
+
+    /**
+     * Scales the given image to {@code width x height}, halving it with
+     * bilinear interpolation until it is within a factor of two of the
+     * target, then scaling it the rest of the way. Each step only averages
+     * neighbouring pixels, so unlike a single bilinear scale no pixel of the
+     * source is skipped. The result is drawn into its own buffer, so it does
+     * not keep a reference to the source image.
+     *
+     * @param image  - The image to scale.
+     * @param width  - The width of the result.
+     * @param height - The height of the result.
+     * @return A new image holding the scaled image.
+     */
+    static BufferedImage scale(final BufferedImage image, final int width, final int height) {
+        var current       = image;
+        var currentWidth  = image.getWidth();
+        var currentHeight = image.getHeight();
+
+        do {
+            currentWidth  = Math.max(width,  currentWidth  / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            final var next     = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            final var graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+
+        return current;
+    }
+
+    /**
+     * A thumbnail waiting to be created, which may be queued more than once.
+     */
+    private static final class Pending {
+        private final int                              index;    // index of the image
+        private final CompletableFuture<BufferedImage> future;   // completed with the thumbnail
+        private final AtomicBoolean                    started;  // whether a task is creating the thumbnail
+        private int                                    priority; // highest priority it is queued at, guarded by the cache
+
+        private Pending(final int index) {
+            this.index    = index;
+            this.future   = new CompletableFuture<>();
+            this.started  = new AtomicBoolean();
+            this.priority = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * A queued creation of a thumbnail, ordered by priority and then by the
+     * order it was queued in.
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        private final Pending entry;
+        private final int     priority;
+        private final long    sequence;
+
+        private Task(final Pending entry, final int priority, final long sequence) {
+            this.entry    = entry;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            create(entry);
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Options controlling a {@code ThumbnailCache}.
+     */
+    public static class Options {
+        private long budget  = 32L << 20;
+        private int  threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        public final long getBudget()  { return budget;  }
+        public final int  getThreads() { return threads; }
+
+        /**
+         * Sets the memory the cached thumbnails may hold. Each thumbnail
+         * holds {@code THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT * 4} bytes, so the
+         * default of 32 MiB keeps about 750 thumbnails, or 37 pages of the
+         * result grid.
+         *
+         * @param budget - The memory budget, in bytes.
+         * @return This {@code Options} object.
+         */
+        public final Options budget(final long budget) {
+            if (budget < 1) throw new RuntimeException("ThumbnailCache: budget must be at least 1 byte");
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads creating thumbnails. The default leaves
+         * half the processors to the rest of the application.
+         *
+         * @param threads - The number of threads.
+         * @return This {@code Options} object.
+         */
+        public final Options threads(final int threads) {
+            if (threads < 1) throw new RuntimeException("ThumbnailCache: threads must be at least 1");
+            this.threads = threads;
+            return this;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package cbir;
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.regex.Pattern;
+import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -14,16 +15,29 @@ public class Utility {
     }
 
     /**
-     * Creates a Double array of size {@code n}, with all elements initialized
+     * Creates a double array of size {@code n}, with all elements initialized
      * to the given {@code value}.
      *
      * @param n     - The size of the array to create.
      * @param value - Value to initialize all elements with.
-     * @return A Double array of size {@code n}, with all elements initialized
+     * @return A double array of size {@code n}, with all elements initialized
      *         to the given {@code value}.
      */
-    public static Double[] doubleArray(final int n, final double value) {
-        return Stream.generate(() -> value).limit(n).toArray(Double[]::new);
+    public static double[] doubleArray(final int n, final double value) {
+        final var array = new double[n];
+        Arrays.fill(array, value);
+        return array;
+    }
+
+    /**
+     * Converts an array of primitive counters into a double array holding the
+     * same values.
+     *
+     * @param values - Array of values to convert.
+     * @return A double array of the same length as {@code values}.
+     */
+    public static double[] toDoubleArray(final int[] values) {
+        return IntStream.of(values).asDoubleStream().toArray();
     }
 
     /**
@@ -32,8 +46,8 @@ public class Utility {
      * @param values - Array of values to accumulate.
      * @return The sum of the values in the array of values.
      */
-    public static double accumulate(final Double[] values) {
-        return Stream.of(values).mapToDouble(d -> d).sum();
+    public static double accumulate(final double[] values) {
+        return DoubleStream.of(values).sum();
     }
 
     /**
@@ -45,7 +59,7 @@ public class Utility {
      * @param n       - The number of rows to accumulation: from row 0 - n.
      * @return The sum of the values in the specified column.
      */
-    public static double accumulateColumn(final Double[][] values,
+    public static double accumulateColumn(final double[][] values,
                                           final int        column,
                                           final int        n) {
         return IntStream.range(0, n).mapToDouble(i -> values[i][column]).sum();
@@ -58,18 +72,18 @@ public class Utility {
      * @return The minimum non-zero value, or {@code Double.MAX_VALUE} if no
      *         non-zero value is found.
      */
-    public static double minNonZeroValue(final Double[] values) {
-        return Arrays.stream(values).filter(value -> value != 0).min(Double::compare).orElse(Double.MAX_VALUE);
+    public static double minNonZeroValue(final double[] values) {
+        return DoubleStream.of(values).filter(value -> value != 0).min().orElse(Double.MAX_VALUE);
     }
 
     /**
-     * Concatenates multiple arrays of Double values into a single array.
+     * Concatenates multiple arrays of double values into a single array.
      *
      * @param arrays - List of arrays to be concatenated.
-     * @return A new Double array containing all elements from the input arrays.
+     * @return A new double array containing all elements from the input arrays.
      */
-    public static Double[] concatenateArray(Double[]... arrays) {
-        return Stream.of(arrays).flatMap(Arrays::stream).toArray(Double[]::new);
+    public static double[] concatenateArray(final double[]... arrays) {
+        return Stream.of(arrays).flatMapToDouble(DoubleStream::of).toArray();
     }
 
     /**
@@ -79,8 +93,8 @@ public class Utility {
      * @param source      - Array to copy values from.
      * @param destination - Array to copy values into.
      */
-    public static void copyArray(final Double[] source,
-                                 final Double[] destination) {
+    public static void copyArray(final double[] source,
+                                 final double[] destination) {
         System.arraycopy(source, 0, destination, 0, source.length);
     }
 
@@ -0,0 +1,71 @@
+package cbir;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link DistanceKernel} that compares as many features at a time as the
+ * CPU's preferred vector shape holds, using the {@code jdk.incubator.vector}
+ * module. The features left over after the last full vector are compared one
+ * at a time.
+ *
+ * <br>
+ * <br>
+ * The partial sums are added in a different order than the scalar kernel
+ * adds them, so the two kernels may disagree in the last bits of a distance.
+ *
+ * <br>
+ * <br>
+ * This class is loaded reflectively by {@link DistanceKernel#select(String) select}, so it
+ * must not be referenced directly from the rest of the code.
+ */
+final class VectorKernel implements DistanceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorKernel() {}
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public double distance(final double[] values, final int offset, final double[] query, final int length) {
+        final var bound = SPECIES.loopBound(length);
+        var sum = DoubleVector.zero(SPECIES);
+        var i   = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final var v = DoubleVector.fromArray(SPECIES, values, offset + i);
+            final var q = DoubleVector.fromArray(SPECIES, query, i);
+            sum = sum.add(v.sub(q).abs());
+        }
+
+        var distance = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) distance += Math.abs(values[offset + i] - query[i]);
+        return distance;
+    }
+
+    @Override
+    public double weightedDistance(final double[] values,
+                                   final int      offset,
+                                   final double[] query,
+                                   final double[] weight,
+                                   final int      length) {
+        final var bound = SPECIES.loopBound(length);
+        var sum = DoubleVector.zero(SPECIES);
+        var i   = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final var v = DoubleVector.fromArray(SPECIES, values, offset + i);
+            final var q = DoubleVector.fromArray(SPECIES, query, i);
+            final var w = DoubleVector.fromArray(SPECIES, weight, i);
+            sum = sum.add(v.sub(q).abs().mul(w));
+        }
+
+        var distance = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) distance += weight[i] * Math.abs(values[offset + i] - query[i]);
+        return distance;
+    }
+}
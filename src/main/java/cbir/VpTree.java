@@ -0,0 +1,161 @@
+package cbir;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A vantage-point tree over the rows of a {@link FeatureStore}, used to find
+ * the images nearest to a query without comparing the query with every image.
+ * Rows are compared with the Manhattan (L1) distance, which is a metric, so
+ * the triangle inequality lets whole subtrees be skipped during a search.
+ *
+ * <br>
+ * <br>
+ * Each node holds a vantage image and the median distance {@code μ} from it
+ * to the other images of its subtree. Images closer than {@code μ} go to the
+ * inner subtree, the rest go to the outer subtree. The tree is stored in flat
+ * arrays: the subtree of each node is a contiguous range of {@code items},
+ * with the vantage image first.
+ *
+ * <br>
+ * <br>
+ * Searches are exact when {@code epsilon} is {@code 0.0}, returning the same
+ * images as a full scan, with images at the same distance ordered by index.
+ * A positive {@code epsilon} searches approximately: a subtree is only visited
+ * if it could hold an image nearer than {@code 1 / (1 + epsilon)} times the
+ * current k-th distance, so the k-th returned distance is at most
+ * {@code 1 + epsilon} times the true k-th nearest distance.
+ */
+public class VpTree {
+    private static final int    LEAF_SIZE = 8;       // largest range scanned without splitting
+    private static final long   SEED      = 0x5eedL; // seed used to pick vantage images
+    private static final double SLACK     = 1e-12;   // absorbs rounding in the triangle inequality
+
+    private final FeatureStore store;  // rows indexed by the tree
+    private final int[]        items;  // image indices, each subtree stored as a contiguous range
+    private final double[]     radius; // median distance from the vantage image at items[lo], indexed by lo
+    private final int[]        split;  // first index of the outer subtree of the node at lo, indexed by lo
+
+    /**
+     * Builds a tree over every row of the given store. Building takes
+     * {@code O(n log n)} distance calculations.
+     *
+     * @param store - The features of each image.
+     */
+    public VpTree(final FeatureStore store) {
+        final var size = store.getSize();
+        this.store  = store;
+        this.items  = new int[size];
+        this.radius = new double[size];
+        this.split  = new int[size];
+
+        Arrays.setAll(items, i -> i);
+        build(0, size, new double[size], new double[store.getStride()], new Random(SEED));
+    }
+
+    public final int getSize() { return items.length; }
+
+    /**
+     * Returns the {@code k} images nearest to the given query features.
+     *
+     * @param query   - The features to search for.
+     * @param k       - The number of images to return.
+     * @param epsilon - The allowed relative error of the search, or
+     *                  {@code 0.0} for an exact search.
+     * @return The indices of the {@code k} nearest images, nearest first, or
+     *         of every image if the tree holds fewer than {@code k}.
+     */
+    public int[] nearest(final double[] query, final int k, final double epsilon) {
+        if (epsilon < 0) throw new RuntimeException("VpTree: epsilon can't be negative");
+
+        final var result = new Neighbours(Math.min(k, items.length));
+        if (result.getCapacity() > 0) search(0, items.length, query, 1.0 / (1.0 + epsilon), result);
+        return result.sorted();
+    }
+
+    /**
+     * Returns the ranking of the images by their distance from the given
+     * query, nearest first. The ranking is extended by searching the tree for
+     * more neighbours as deeper ranks are requested. With a positive
+     * {@code epsilon}, extending the ranking may reorder images that were
+     * already ranked.
+     *
+     * @param query   - The features to search for.
+     * @param epsilon - The allowed relative error of the search, or
+     *                  {@code 0.0} for an exact search.
+     * @return A ranking of the images by distance.
+     */
+    public Ranking rank(final double[] query, final double epsilon) {
+        final var features = query.clone();
+        return new Ranking(items.length) {
+            @Override
+            protected int[] rank(final int count) {
+                return VpTree.this.nearest(features, count, epsilon);
+            }
+        };
+    }
+
+    private void build(final int lo, final int hi, final double[] distances, final double[] vantage, final Random random) {
+        if (hi - lo <= LEAF_SIZE) return;
+
+        // move a random vantage image to the front of the range
+        swap(lo, lo + random.nextInt(hi - lo), distances);
+        store.copyRow(items[lo], vantage);
+        for (int i = lo + 1; i < hi; i++) distances[i] = store.distance(items[i], vantage);
+
+        // partition the remaining images around the median distance
+        final var median = lo + 1 + (hi - lo - 1) / 2;
+        select(lo + 1, hi - 1, median, distances);
+        radius[lo] = distances[median];
+        split[lo]  = median;
+
+        build(lo + 1, median, distances, vantage, random);
+        build(median, hi, distances, vantage, random);
+    }
+
+    private void search(final int lo, final int hi, final double[] query, final double scale, final Neighbours result) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) result.offer(items[i], store.distance(items[i], query));
+            return;
+        }
+
+        final var distance = store.distance(items[lo], query);
+        result.offer(items[lo], distance);
+
+        // visit the side the query falls in first, it's the most likely to tighten the bound
+        final var mu = radius[lo];
+        if (distance < mu) {
+            if (distance - result.bound(scale) <= mu + SLACK) search(lo + 1, split[lo], query, scale, result);
+            if (distance + result.bound(scale) >= mu - SLACK) search(split[lo], hi, query, scale, result);
+        } else {
+            if (distance + result.bound(scale) >= mu - SLACK) search(split[lo], hi, query, scale, result);
+            if (distance - result.bound(scale) <= mu + SLACK) search(lo + 1, split[lo], query, scale, result);
+        }
+    }
+
+    // quickselect on items[left..right] by distance, so that items[k] holds the k-th smallest distance
+    private void select(int left, int right, final int k, final double[] distances) {
+        while (left < right) {
+            final var pivot = distances[(left + right) >>> 1];
+            var i = left;
+            var j = right;
+            while (i <= j) {
+                while (distances[i] < pivot) i++;
+                while (distances[j] > pivot) j--;
+                if (i <= j) swap(i++, j--, distances);
+            }
+            if (k <= j)      right = j;
+            else if (k >= i) left  = i;
+            else             return;
+        }
+    }
+
+    private void swap(final int a, final int b, final double[] distances) {
+        final var item     = items[a];
+        final var distance = distances[a];
+        items[a]     = items[b];
+        distances[a] = distances[b];
+        items[b]     = item;
+        distances[b] = distance;
+    }
+}